@@ -1,11 +1,60 @@
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import javafx.application.Platform;
 import javafx.collections.ObservableList;
 
 public class AppController {
+    // CONTROLLER: Type-ahead lookups start at most once per frame (60 Hz)
+    static final long SUGGEST_DELAY_MILLIS = 16;
+    // CONTROLLER: Live views kept following the library; the least recently
+    // used one beyond this many is disposed
+    static final int MAX_VIEWS = 8;
     // CONTROLLER: Holds reference to Model
     private final AppModel model;
+    // CONTROLLER: Live views handed to the View, one per distinct query, in
+    // access order; guarded by itself
+    private final Map<BookQuery, LiveLibraryView> views;
+    // CONTROLLER: Runs slow queries in the background
+    private final QueryExecutor queries;
+    // CONTROLLER: Times every call into the model (off unless enabled)
+    private final LibraryMetrics metrics;
+    // CONTROLLER: When the last type-ahead lookup was set to start, by System.nanoTime
+    private volatile long lastSuggestNanos;
 
     public AppController(AppModel model) {
+        this(model, Platform::runLater);
+    }
+
+    // resultExecutor receives the results of the *Async methods.
+    public AppController(AppModel model, Executor resultExecutor) {
         this.model = model;
+        this.views = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<BookQuery, LiveLibraryView> eldest) {
+                if (size() > MAX_VIEWS) {
+                    // Every view is updated on each library change, so an
+                    // old one must stop following the library.
+                    eldest.getValue().dispose();
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.queries = new QueryExecutor(resultExecutor);
+        this.metrics = new LibraryMetrics();
+        // The first keystroke finds the field idle.
+        this.lastSuggestNanos = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(SUGGEST_DELAY_MILLIS);
+    }
+
+    public LibraryMetrics getMetrics() {
+        return metrics;
     }
 
     // CONTROLLER: Delegates filtering requests to Model
@@ -16,42 +65,241 @@ public class AppController {
 
     public Library filterPrintBook() {
         // CONTROLLER -> MODEL
-        return this.getLibrary().filterPrintBook();
+        return metrics.time("filterPrintBook", () -> this.getLibrary().filterPrintBook());
     }
 
     public Library filterPrintBook(Genre genre) {
         // CONTROLLER -> MODEL
-        return this.getLibrary().filterPrintBook(genre);
+        return metrics.time("filterPrintBook(genre)", () -> this.getLibrary().filterPrintBook(genre));
     }
 
     public Library filterDigitalBook() {
         // CONTROLLER -> MODEL
-        return this.getLibrary().filterDigitalBook();
+        return metrics.time("filterDigitalBook", () -> this.getLibrary().filterDigitalBook());
     }
 
     public Library filterDigitalBook(Genre genre) {
         // CONTROLLER -> MODEL
-        return this.getLibrary().filterDigitalBook(genre);
+        return metrics.time("filterDigitalBook(genre)", () -> this.getLibrary().filterDigitalBook(genre));
+    }
+
+    public Library filter(BookQuery query) {
+        // CONTROLLER -> MODEL
+        return metrics.time("filter", () -> this.getLibrary().filter(query));
+    }
+
+    // CONTROLLER: Returns a live view sorted by title, built once per query.
+    // Only the MAX_VIEWS most recently used queries keep their view; a
+    // disposed view keeps its rows but no longer changes.
+    public LiveLibraryView view(BookQuery query) {
+        // CONTROLLER -> MODEL
+        return metrics.time("view", () -> {
+            synchronized (views) {
+                return views.computeIfAbsent(query, q -> this.getLibrary().view(q, Book.byTitle));
+            }
+        });
+    }
+
+    // CONTROLLER: Builds (or reuses) the live view off the JavaFX thread and
+    // passes it to onResult on the JavaFX thread. A newer call on the same
+    // channel cancels this one.
+    public CompletableFuture<LiveLibraryView> viewAsync(String channel, BookQuery query,
+            Consumer<LiveLibraryView> onResult) {
+        // CONTROLLER -> MODEL
+        return queries.submit(channel, () -> view(query), onResult);
     }
 
     public void sortByTitle() {
         // CONTROLLER -> MODEL
-        this.getLibrary().sortByTitle();
+        metrics.time("sortByTitle", () -> this.getLibrary().sortByTitle());
     }
 
     public void sortbyAuthor() {
         // CONTROLLER -> MODEL
-        this.getLibrary().sortByAuthor();
+        metrics.time("sortByAuthor", () -> this.getLibrary().sortByAuthor());
     }
      // CONTROLLER: Core checking out operation - delegates to Model
-    public void checkoutBook(Book selectedBook) {
+    public boolean checkoutBook(Book selectedBook) {
+        // CONTROLLER to MODEL: the model updates the borrowed count itself
+        return metrics.time("checkoutBook", () -> this.model.checkoutBook(selectedBook));
+    }
+
+    // CONTROLLER: The checkout waits for the loan journal to reach the disk,
+    // so the View calls these and gets the outcome back on its own thread.
+    // The model moves statuses, lists and live views on the JavaFX thread
+    // itself (see AppModel.setViewExecutor); only the waiting happens here.
+    public CompletableFuture<Boolean> checkoutBookAsync(Book selectedBook, Consumer<Boolean> onResult) {
+        return change("checkoutBook", () -> checkoutBook(selectedBook), onResult, false);
+    }
+
+    public CompletableFuture<Boolean> checkoutBooksAsync(Collection<? extends Book> books,
+            Consumer<Boolean> onResult) {
+        return change("checkoutBooks", () -> checkoutBooks(books), onResult, false);
+    }
+
+    public CompletableFuture<Integer> returnBooksAsync(Collection<? extends Book> books,
+            Consumer<Integer> onResult) {
+        return change("returnBooks", () -> returnBooks(books), onResult, 0);
+    }
+
+    public CompletableFuture<Boolean> returnBookAsync(Book book, Consumer<Boolean> onResult) {
+        return change("returnBook", () -> returnBook(book), onResult, false);
+    }
+
+    // A change that throws is reported to the View like one the model
+    // refused (failed), so the user is told instead of waiting for nothing.
+    private <T> CompletableFuture<T> change(String name, Callable<T> change, Consumer<T> onResult, T failed) {
+        return queries.run(change, onResult, e -> {
+            System.out.println(name + " failed: " + e);
+            onResult.accept(failed);
+        });
+    }
+
+    public boolean checkoutBooks(Collection<? extends Book> books) {
+        // CONTROLLER to MODEL: the model updates the borrowed count itself
+        return metrics.time("checkoutBooks", () -> this.model.checkoutBooks(books));
+    }
+
+    public int returnBooks(Collection<? extends Book> books) {
+        // CONTROLLER to MODEL: the model updates the borrowed count itself
+        return metrics.time("returnBooks", () -> this.model.returnBooks(books));
+    }
+
+    public Patron getPatron(String patronId) {
+        // CONTROLLER -> MODEL
+        return this.model.getPatron(patronId);
+    }
+
+    // CONTROLLER: Checks a cart out to any patron, all or nothing and within
+    // the borrowing limit. Safe from any thread, used by the HTTP server.
+    public boolean checkoutBooks(String patronId, Collection<? extends Book> books) {
         // CONTROLLER to MODEL
-        this.model.checkoutBook(selectedBook);
+        return metrics.time("checkoutBooks(patron)",
+                () -> this.model.checkoutBooks(this.model.getPatron(patronId), books, AppModel.MAX_BORROWED));
+    }
+
+    public List<Book> returnBooks(String patronId, Collection<? extends Book> books) {
+        // CONTROLLER to MODEL
+        return metrics.time("returnBooks(patron)",
+                () -> this.model.returnBooks(this.model.getPatron(patronId), books));
+    }
+
+    // CONTROLLER: End-of-day sweep that brings every loan back at once.
+    public int returnAllLoans() {
+        // CONTROLLER -> MODEL
+        return metrics.time("returnAllLoans", () -> this.model.returnAllLoans());
+    }
+
+    // CONTROLLER: Queues the patron for a print copy that is out. Returns
+    // their place in the queue, 0 if the copy is on the shelf or -1 if the
+    // book cannot be held; see AppModel.placeHold.
+    public int placeHold(String patronId, Book book) {
+        // CONTROLLER -> MODEL
+        return metrics.time("placeHold", () -> this.model.placeHold(this.model.getPatron(patronId), book));
+    }
+
+    public boolean cancelHold(String patronId, Book book) {
+        // CONTROLLER -> MODEL
+        return metrics.time("cancelHold", () -> this.model.cancelHold(this.model.getPatron(patronId), book));
+    }
+
+    public List<Book> getHolds(String patronId) {
+        // CONTROLLER -> MODEL
+        return this.model.getHolds(this.model.getPatron(patronId));
+    }
+
+    public int getHoldPosition(String patronId, Book book) {
+        // CONTROLLER -> MODEL
+        return this.model.getHoldPosition(this.model.getPatron(patronId), book);
+    }
+
+    // CONTROLLER: Pushes what happens to a returned copy of the book to
+    // subscriber, on the returning thread.
+    public void subscribe(Book book, Consumer<HoldQueues.HoldEvent> subscriber) {
+        // CONTROLLER -> MODEL
+        this.model.subscribe(book, subscriber);
+    }
+
+    public void unsubscribe(Book book, Consumer<HoldQueues.HoldEvent> subscriber) {
+        // CONTROLLER -> MODEL
+        this.model.unsubscribe(book, subscriber);
+    }
+
+    public BookPage page(BookQuery query, BookOrder order, BookPage.Cursor after, int limit) {
+        // CONTROLLER -> MODEL
+        return metrics.time("page", () -> this.getLibrary().page(query, order, after, limit));
+    }
+
+    public QueryCache getQueryCache() {
+        // CONTROLLER -> MODEL: hit/miss/eviction counts of the library's result cache
+        return this.getLibrary().getQueryCache();
+    }
+
+    // CONTROLLER: Fetches a page off the JavaFX thread, e.g. when a table
+    // scrolls near the end of what it has loaded.
+    public CompletableFuture<BookPage> pageAsync(String channel, BookQuery query, BookOrder order,
+            BookPage.Cursor after, int limit, Consumer<BookPage> onResult) {
+        return queries.submit(channel, () -> page(query, order, after, limit), onResult);
     }
 
     public Book getBook(String title) {
         // CONTROLLER -> MODEL
-        return this.getLibrary().getBook(title);
+        return metrics.time("getBook", () -> this.getLibrary().getBook(title));
+    }
+
+    public CompletableFuture<Book> getBookAsync(String title, Consumer<Book> onResult) {
+        // CONTROLLER -> MODEL, off the JavaFX thread
+        return queries.submit("search", () -> getBook(title), onResult);
+    }
+
+    public List<Book> search(String text, int limit) {
+        // CONTROLLER -> MODEL
+        return metrics.time("search", () -> this.getLibrary().search(text, limit));
+    }
+
+    public CompletableFuture<List<Book>> searchAsync(String text, int limit, Consumer<List<Book>> onResult) {
+        // CONTROLLER -> MODEL, off the JavaFX thread
+        return queries.submit("search", () -> search(text, limit), onResult);
+    }
+
+    public List<Book> suggest(String text, int limit) {
+        // CONTROLLER -> MODEL
+        return metrics.time("suggest", () -> this.getLibrary().suggest(text, limit));
+    }
+
+    // CONTROLLER: Type-ahead lookup, called on every keystroke. A keystroke
+    // SUGGEST_DELAY_MILLIS after the last lookup started is looked up at
+    // once; one that comes sooner waits only for the rest of that frame, and
+    // a later keystroke in the same frame replaces it without moving the
+    // start. So a burst of typing gets a lookup every frame, not one after
+    // the typing stops. Results of an older keystroke are never delivered.
+    // The time from the keystroke to the results reaching onResult is
+    // recorded as "suggest.delivered".
+    public CompletableFuture<List<Book>> suggestAsync(String text, int limit, Consumer<List<Book>> onResult) {
+        // CONTROLLER -> MODEL, off the JavaFX thread
+        long start = System.nanoTime();
+        long last = lastSuggestNanos;
+        // A lookup that has yet to start is replaced and keeps its start.
+        long begin = last > start ? last : Math.max(start, last + TimeUnit.MILLISECONDS.toNanos(SUGGEST_DELAY_MILLIS));
+        lastSuggestNanos = begin;
+        long delay = TimeUnit.NANOSECONDS.toMillis(begin - start + TimeUnit.MILLISECONDS.toNanos(1) - 1);
+        return queries.submit("suggest", delay, () -> suggest(text, limit), books -> {
+            if (metrics.isEnabled()) {
+                metrics.record("suggest.delivered", System.nanoTime() - start, false);
+            }
+            onResult.accept(books);
+        });
+    }
+
+    // CONTROLLER: Drops a pending type-ahead lookup, e.g. when the field is cleared.
+    public void cancelSuggest() {
+        queries.cancel("suggest");
+    }
+
+    public List<Book> getBooksByTitlePrefix(String prefix, int limit) {
+        // CONTROLLER -> MODEL
+        return metrics.time("getBooksByTitlePrefix",
+                () -> this.getLibrary().getBooksByTitlePrefix(prefix, limit));
     }
 
     public ObservableList<Book> getBorrowedBooks() {
@@ -69,17 +317,8 @@ public class AppController {
         return this.model.getDownloadedBooks();
     }
 
-    public void returnBook(Book book) {
-         // CONTROLLER -> MODEL
-        this.model.returnBook(book);
-    }
-
-    public void addCountBorrowedBook() {
-         // CONTROLLER: Library logic for counting borrowed books
-        model.countBorrowedBookProperty().set(model.countBorrowedBookProperty().get() + 1);
-    }
-
-    public void subtractCountBorrowedBook() {
-        model.countBorrowedBookProperty().set(model.countBorrowedBookProperty().get() - 1);
+    public boolean returnBook(Book book) {
+         // CONTROLLER -> MODEL: the model updates the borrowed count itself
+        return metrics.time("returnBook", () -> this.model.returnBook(book));
     }
 }
\ No newline at end of file
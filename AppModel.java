@@ -1,14 +1,36 @@
-
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.List;
 import javafx.beans.property.SimpleIntegerProperty;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.SimpleBooleanProperty;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
 import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+import java.util.function.Supplier;
 
 interface BookFilter {
     // Returns all digital books.
@@ -42,6 +64,15 @@ interface BookSort {
     void sortByTitle();
 }
 
+// Notified by a BookStore, or by a book built from properties, whenever a
+// book's status changes (checkout, return) or its values are edited through
+// its properties.
+interface StatusListener {
+    void statusChanged(Book book, Status oldStatus, Status newStatus);
+
+    void bookEdited(Book book, String oldTitle);
+}
+
 public class AppModel {
     private ObservableList<Book> borrowedBooks;
     private ObservableList<Book> downloadedBooks;
@@ -50,7 +81,20 @@ public class AppModel {
     private SimpleIntegerProperty countBorrowedBook;
     // Automatically updates UI counters
     private SimpleBooleanProperty overMaximum;
+    // MODEL: Most print books the local user may have out at once.
+    static final int MAX_BORROWED = 3;
     // Controls borrowing limit enforcement
+    // MODEL: Every patron served by this desk, each with its own ledger.
+    // borrowedBooks/downloadedBooks above mirror the local patron for the UI.
+    private final Map<String, Patron> patrons;
+    private final Patron localPatron;
+    // MODEL: Optional write-ahead log; without one, loans live only in memory.
+    private LoanJournal journal;
+    // MODEL: Patrons waiting for print copies that are out, and who to tell
+    // when a copy comes back.
+    private final HoldQueues holds;
+    // MODEL: Runs the updates of borrowedBooks, downloadedBooks and the counter.
+    private volatile Executor viewExecutor;
 
     public AppModel(Library library) {
         // MODEL: Initialize data structures with observable collections
@@ -62,6 +106,112 @@ public class AppModel {
         // MODEL: Create observable properties for real-time UI updates
         this.countBorrowedBook = new SimpleIntegerProperty(0);
         this.overMaximum = new SimpleBooleanProperty();
+
+        this.patrons = new ConcurrentHashMap<>();
+        this.localPatron = new Patron("local", "local");
+        this.patrons.put(localPatron.getId(), localPatron);
+        this.holds = new HoldQueues();
+        this.viewExecutor = Runnable::run;
+    }
+
+    // MODEL: The app passes Platform::runLater, so the local user's lists and
+    // counter, the books' status properties and the library's live views
+    // change on the JavaFX thread whichever thread checked out or returned.
+    // By default they change in place.
+    public void setViewExecutor(Executor viewExecutor) {
+        this.viewExecutor = viewExecutor;
+        library.setViewExecutor(viewExecutor);
+    }
+
+    // Records the status in the store, where the libraries pick it up, and
+    // moves the book's status property on the view executor, since its
+    // listeners may be bound to the UI.
+    private void setStatus(Book book, Status status) {
+        book.setStoredStatus(status);
+        viewExecutor.execute(book::syncStatusProperty);
+    }
+
+    // Applies a change to the local user's lists, then sets the counter from
+    // the ledger.
+    private void updateLocal(Runnable change) {
+        viewExecutor.execute(() -> {
+            change.run();
+            setCountBorrowedBook(localPatron.getBorrowedCount());
+        });
+    }
+
+    // MODEL: Returns the patron with this id, registering it on first use.
+    public Patron getPatron(String id) {
+        return patrons.computeIfAbsent(id, key -> new Patron(key, key));
+    }
+
+    public Patron getLocalPatron() {
+        return this.localPatron;
+    }
+
+    public Collection<Patron> getPatrons() {
+        return patrons.values();
+    }
+
+    // MODEL: Restores the loans and downloads recorded in the journal, then
+    // records every later checkout and return in it. Call before the model
+    // is shared. Books are matched by title and author.
+    public void recover(LoanJournal journal) {
+        for (LoanJournal.Entry entry : journal.recovered()) {
+            Patron patron = getPatron(entry.patron);
+            Book restored = null;
+            for (Book book : library.getBooks(entry.title, entry.author)) {
+                if (entry.op == LoanJournal.CHECKOUT && book instanceof PrintBook
+                        && ((PrintBook) book).tryLend()) {
+                    patron.addLoan(book);
+                    book.setStatus(Status.UNAVAILABLE);
+                    restored = book;
+                    break;
+                } else if (entry.op == LoanJournal.DOWNLOAD && book instanceof DigitalBook) {
+                    patron.addDownload(book);
+                    restored = book;
+                    break;
+                }
+            }
+            if (restored == null) {
+                System.out.println("Could not restore " + entry + ": not in the catalog");
+            } else if (patron == localPatron) {
+                if (restored instanceof PrintBook) {
+                    borrowedBooks.add(restored);
+                } else {
+                    downloadedBooks.add(restored);
+                }
+            }
+        }
+        setCountBorrowedBook(localPatron.getBorrowedCount());
+        this.journal = journal;
+    }
+
+    // Returns false if the change could not be written to the journal.
+    private boolean log(byte op, Patron patron, Book book) {
+        if (journal == null) {
+            return true;
+        }
+        try {
+            journal.append(op, patron.getId(), book);
+            return true;
+        } catch (IOException e) {
+            System.out.println("Could not record " + book.getFormattedTitle() + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private boolean log(List<LoanJournal.Entry> entries) {
+        if (journal == null) {
+            return true;
+        }
+        try {
+            journal.appendAll(entries);
+            return true;
+        } catch (IOException e) {
+            System.out.println("Could not record " + entries.size() + " changes: " + e.getMessage());
+            return false;
+        }
     }
 
     public SimpleIntegerProperty countBorrowedBookProperty() {
@@ -93,40 +243,346 @@ public class AppModel {
     }
 
     // CORE LIBRARY LOGIC - Book Return Process:
-    public void returnBook(Book book) {
+    // Returns false if the local user does not have the book.
+    public boolean returnBook(Book book) {
         // MODEL: Checks if book exists in user's borrowed collection
-        if (borrowedBooks.contains(book)) {
+        if (returnBook(localPatron, book)) {
             // MODEL: Removes book from user's borrowed list
-            borrowedBooks.remove(book);
-            // MODEL: Updates book's availability status
-            ((PrintBook) book).setAvailable(true);
-            // MODEL: Updates book's status for display
-            book.setStatus(Status.AVAILABLE);
             // Observable collection automatically notifies bound UI components
-        } else {
-            System.out.println(book.getFormattedTitle() + " is not borrowed by this user.");
+            updateLocal(() -> borrowedBooks.remove(book));
+            return true;
+        }
+        System.out.println(book.getFormattedTitle() + " is not borrowed by this user.");
+        return false;
+    }
+
+    // MODEL: Returns a print book from the patron's ledger. Safe to call from
+    // any thread; false if the patron does not have the book.
+    public boolean returnBook(Patron patron, Book book) {
+        if (!(book instanceof PrintBook) || !patron.removeLoan(book)) {
+            return false;
+        }
+        if (!log(LoanJournal.RETURN, patron, book)) {
+            patron.addLoan(book);
+            return false;
+        }
+        PrintBook copy = (PrintBook) book;
+        if (lendToHolder(copy) == null) {
+            // MODEL: Updates book's status for display, then frees the copy.
+            // In this order a new borrower's UNAVAILABLE is never overwritten.
+            setStatus(book, Status.AVAILABLE);
+            copy.release();
+            shelved(copy);
+        }
+        return true;
+    }
+
+    // MODEL: Puts the patron in the queue for a print copy that is out.
+    // Returns their place (1 = next in line), 0 if the copy is on the shelf
+    // and can simply be checked out, or -1 if the book cannot be held (not a
+    // print book of this library, or the patron has it already).
+    public int placeHold(Patron patron, Book book) {
+        if (!(book instanceof PrintBook) || !library.hasBook(book) || patron.hasBorrowed(book)) {
+            return -1;
+        }
+        return holds.placeHold((PrintBook) book, patron);
+    }
+
+    public boolean cancelHold(Patron patron, Book book) {
+        return holds.cancelHold(book, patron);
+    }
+
+    // MODEL: The patron's place in the book's queue (1 = next), or 0.
+    public int getHoldPosition(Patron patron, Book book) {
+        return holds.position(book, patron);
+    }
+
+    public int getHoldCount(Book book) {
+        return holds.size(book);
+    }
+
+    public List<Book> getHolds(Patron patron) {
+        return holds.holdsOf(patron);
+    }
+
+    // MODEL: Tells subscriber whenever a returned copy of the book goes back
+    // on the shelf or straight to the next holder, instead of having to poll
+    // the library for its status. Called on the returning thread.
+    public void subscribe(Book book, Consumer<HoldQueues.HoldEvent> subscriber) {
+        holds.subscribe(book, subscriber);
+    }
+
+    public void unsubscribe(Book book, Consumer<HoldQueues.HoldEvent> subscriber) {
+        holds.unsubscribe(book, subscriber);
+    }
+
+    // MODEL: Lends a returned copy, which is still marked as lent, straight
+    // to the first patron waiting for it, so nobody can take it in between
+    // and its status never changes. Holders already at the borrowing limit
+    // are passed over but keep their place. Returns the new borrower, or
+    // null if nobody who can borrow is waiting and the copy has to go back
+    // on the shelf.
+    private Patron lendToHolder(PrintBook book) {
+        Patron holder;
+        while ((holder = holds.next(book, p -> p.getBorrowedCount() < MAX_BORROWED)) != null) {
+            synchronized (holder) {
+                if (holder.getBorrowedCount() >= MAX_BORROWED) {
+                    // Reached the limit after the queue was checked; the
+                    // next pass skips them.
+                    holds.restore(book, holder);
+                    continue;
+                }
+                if (!log(LoanJournal.CHECKOUT, holder, book)) {
+                    holds.restore(book, holder);
+                    return null;
+                }
+                holder.addLoan(book);
+            }
+            if (holder == localPatron) {
+                updateLocal(() -> borrowedBooks.add(book));
+            }
+            holds.publish(new HoldQueues.HoldEvent(HoldQueues.HoldEvent.Kind.LENT_TO_HOLDER, book, holder));
+            return holder;
+        }
+        return null;
+    }
+
+    // MODEL: Called once a returned copy is back on the shelf. A hold placed
+    // while the copy was on its way back still gets it; otherwise the
+    // subscribers learn that it is available.
+    private void shelved(PrintBook book) {
+        if (holds.size(book) > 0 && book.tryLend()) {
+            if (lendToHolder(book) != null) {
+                setStatus(book, Status.UNAVAILABLE);
+                return;
+            }
+            book.release();
+        }
+        if (book.getAvailable()) {
+            holds.publish(new HoldQueues.HoldEvent(HoldQueues.HoldEvent.Kind.AVAILABLE, book, null));
         }
     }
 
     // MODEL: Core business logic for book checkout
-    public void checkoutBook(Book book) {
-        // MODEL: Validates book exists in Library
-        if (book != null && library.hasBook(book)) {
-            // MODEL: determine book type and processes accordingly
-            if (book instanceof DigitalBook && ((DigitalBook) book).canDownload()) {
-                // MODEL: Adds digital book to downloaded collection
+    // Returns false if the book was not checked out: not available, not
+    // downloadable, or the local user is at MAX_BORROWED.
+    public boolean checkoutBook(Book book) {
+        if (!checkoutBook(localPatron, book)) {
+            return false;
+        }
+        // MODEL: determine book type and processes accordingly
+        // Observable collection triggers automatic view updates; the counter
+        // follows the ledger, never the other way round.
+        updateLocal(() -> {
+            if (book instanceof PrintBook) {
+                this.borrowedBooks.add(book);
+            } else {
                 this.downloadedBooks.add(book);
-                // Observable collection triggers automatic view updates
-            } else if (book instanceof PrintBook && ((PrintBook) book).getAvailable()) {
+            }
+        });
+        return true;
+    }
+
+    // MODEL: Checks a book out to a patron. Safe to call from any thread:
+    // a print copy is taken with compare-and-set, so it is lent at most once,
+    // and only while holding the patron, so a patron at MAX_BORROWED cannot
+    // pass the limit with concurrent checkouts (or carts) either.
+    public boolean checkoutBook(Patron patron, Book book) {
+        // MODEL: Validates book exists in Library
+        if (book == null || !library.hasBook(book)) {
+            System.out.println("The book does not exist!");
+            return false;
+        }
+        // MODEL: determine book type and processes accordingly
+        if (book instanceof DigitalBook && ((DigitalBook) book).canDownload()) {
+            if (!log(LoanJournal.DOWNLOAD, patron, book)) {
+                return false;
+            }
+            // MODEL: Adds digital book to downloaded collection
+            patron.addDownload(book);
+            return true;
+        } else if (book instanceof PrintBook) {
+            PrintBook copy = (PrintBook) book;
+            synchronized (patron) {
+                if (patron.getBorrowedCount() >= MAX_BORROWED || !copy.tryLend()) {
+                    return false;
+                }
+                // MODEL: The change is on disk before anyone sees it.
+                if (!log(LoanJournal.CHECKOUT, patron, book)) {
+                    copy.release();
+                    return false;
+                }
                 // MODEL: adds printbook to borrowed collection
-                this.borrowedBooks.add(book);
+                patron.addLoan(book);
                 // MODEL: updates book status
-                ((PrintBook) book).setAvailable(false);
-                // Observable collection triggers automatic View Updates
-                book.setStatus(Status.UNAVAILABLE);
+                setStatus(book, Status.UNAVAILABLE);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    // MODEL: Checks out a whole cart for the local user. Either every book
+    // is checked out or none is, and each list and the borrowed counter
+    // change once for the whole cart. False if a print book is not available
+    // or the cart would take the user over MAX_BORROWED.
+    public boolean checkoutBooks(Collection<? extends Book> books) {
+        if (!checkoutBooks(localPatron, books, MAX_BORROWED)) {
+            return false;
+        }
+        List<Book> prints = new ArrayList<>();
+        List<Book> downloads = new ArrayList<>();
+        for (Book book : books) {
+            if (book instanceof PrintBook) {
+                prints.add(book);
+            } else {
+                downloads.add(book);
+            }
+        }
+        updateLocal(() -> {
+            this.borrowedBooks.addAll(prints);
+            this.downloadedBooks.addAll(downloads);
+        });
+        return true;
+    }
+
+    // MODEL: Checks a cart out to a patron, all or nothing. The limit is
+    // checked and the copies are taken while holding the patron, so two
+    // carts of one patron cannot both pass the limit. Safe from any thread.
+    public boolean checkoutBooks(Patron patron, Collection<? extends Book> books, int limit) {
+        List<PrintBook> prints = new ArrayList<>();
+        List<LoanJournal.Entry> entries = new ArrayList<>(books.size());
+        for (Book book : books) {
+            if (book == null || !library.hasBook(book)) {
+                System.out.println("The book does not exist!");
+                return false;
+            }
+            if (book instanceof DigitalBook && ((DigitalBook) book).canDownload()) {
+                entries.add(new LoanJournal.Entry(LoanJournal.DOWNLOAD, patron.getId(), book));
+            } else if (book instanceof PrintBook) {
+                prints.add((PrintBook) book);
+                entries.add(new LoanJournal.Entry(LoanJournal.CHECKOUT, patron.getId(), book));
+            } else {
+                return false;
+            }
+        }
+        synchronized (patron) {
+            if (patron.getBorrowedCount() + prints.size() > limit) {
+                return false;
+            }
+            for (int i = 0; i < prints.size(); i++) {
+                if (!prints.get(i).tryLend()) {
+                    // Someone else has this copy: give back the ones taken.
+                    for (int j = 0; j < i; j++) {
+                        prints.get(j).release();
+                    }
+                    return false;
+                }
+            }
+            if (!log(entries)) {
+                for (PrintBook book : prints) {
+                    book.release();
+                }
+                return false;
+            }
+            // The whole cart reaches the indexes and views as one change.
+            LibraryTransaction changes = library.transaction();
+            for (Book book : books) {
+                if (book instanceof PrintBook) {
+                    patron.addLoan(book);
+                    changes.setStatus(book, Status.UNAVAILABLE);
+                } else {
+                    patron.addDownload(book);
+                }
+            }
+            changes.commit();
+        }
+        return true;
+    }
+
+    // MODEL: Returns every book of the cart the local user has borrowed,
+    // with one list change and one counter update. Returns how many.
+    public int returnBooks(Collection<? extends Book> books) {
+        List<Book> returned = returnBooks(localPatron, books);
+        updateLocal(() -> this.borrowedBooks.removeAll(returned));
+        return returned.size();
+    }
+
+    // MODEL: Returns the books of the cart that the patron has borrowed;
+    // others are skipped. Safe from any thread.
+    public List<Book> returnBooks(Patron patron, Collection<? extends Book> books) {
+        LibraryTransaction changes = library.transaction();
+        List<Book> returned = returnBooks(patron, books, changes);
+        changes.commit();
+        shelved(returned);
+        return returned;
+    }
+
+    // MODEL: Nightly return sweep: takes back every print book on loan to
+    // any patron. All copies go back on the shelf in one transaction, so
+    // the catalog and each live view change once, not once per book.
+    // Returns how many books came back.
+    public int returnAllLoans() {
+        LibraryTransaction changes = library.transaction();
+        int count = 0;
+        List<Book> local = new ArrayList<>();
+        List<Book> all = new ArrayList<>();
+        // Loans as they were when the sweep began; a copy handed to a holder
+        // during the sweep stays with them.
+        Map<Patron, List<Book>> loans = new HashMap<>();
+        for (Patron patron : patrons.values()) {
+            loans.put(patron, patron.getBorrowedBooks());
+        }
+        for (Map.Entry<Patron, List<Book>> loan : loans.entrySet()) {
+            Patron patron = loan.getKey();
+            List<Book> returned = returnBooks(patron, loan.getValue(), changes);
+            count += returned.size();
+            all.addAll(returned);
+            if (patron == localPatron) {
+                local = returned;
+            }
+        }
+        changes.commit();
+        shelved(all);
+        List<Book> localReturned = local;
+        updateLocal(() -> this.borrowedBooks.removeAll(localReturned));
+        return count;
+    }
+
+    // Takes the books back into the ledger and journal. Copies someone holds
+    // go to them right away; the status changes (and the release) of the
+    // others happen when changes commits, after which call shelved.
+    private List<Book> returnBooks(Patron patron, Collection<? extends Book> books, LibraryTransaction changes) {
+        List<Book> returned = new ArrayList<>();
+        List<LoanJournal.Entry> entries = new ArrayList<>();
+        synchronized (patron) {
+            for (Book book : books) {
+                if (book instanceof PrintBook && patron.removeLoan(book)) {
+                    returned.add(book);
+                    entries.add(new LoanJournal.Entry(LoanJournal.RETURN, patron.getId(), book));
+                }
+            }
+            if (!log(entries)) {
+                for (Book book : returned) {
+                    patron.addLoan(book);
+                }
+                return new ArrayList<>();
+            }
+        }
+        for (Book book : returned) {
+            if (lendToHolder((PrintBook) book) == null) {
+                changes.setStatus(book, Status.AVAILABLE);
+            }
+        }
+        return returned;
+    }
+
+    // Copies lent to a holder are still out and are skipped.
+    private void shelved(List<Book> returned) {
+        for (Book book : returned) {
+            if (((PrintBook) book).getAvailable()) {
+                shelved((PrintBook) book);
             }
-        } else {
-            System.out.println("The book does not exist!");
         }
     }
 
@@ -141,7 +597,8 @@ public class AppModel {
         List<Book> merged = new ArrayList<>();
         merged.addAll(borrowedBooks);
         merged.addAll(downloadedBooks);
-        userBooks.addAll(merged);
+        // Replaced, not appended, so repeated calls do not list a book twice.
+        userBooks.setAll(merged);
         return userBooks;
     }
 
@@ -201,16 +658,503 @@ public class AppModel {
 }
 
 // MODEL: Main library data management and filtering logic
-class Library implements BookFilter, BookSort {
+class Library implements BookFilter, BookSort, StatusListener {
+    // MODEL: A partly typed word is completed once it has this many letters,
+    // into at most COMPLETIONS words.
+    static final int MIN_COMPLETION = 2;
+    static final int COMPLETIONS = 8;
     // MODEL: Core book collection storage
     private ObservableList<Book> books;
+    // MODEL: Title lookup and filter indexes kept in sync with the collection
+    private final TitleIndex titles = new TitleIndex();
+    private final CatalogIndex index = new CatalogIndex();
+    // MODEL: Ranked word search over titles and authors, keyed by index row
+    private final FullTextIndex words = new FullTextIndex();
+    // MODEL: Live views that are updated row by row
+    private final List<LiveLibraryView> views = new CopyOnWriteArrayList<>();
+    // MODEL: Guards the indexes. Changes take the write lock, queries
+    // (which may run on background threads) take the read lock.
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // Stores whose status changes this library follows, usually just one.
+    private final List<BookStore> stores = new ArrayList<>(1);
+    // MODEL: Sorted orderings, one per BookOrder. Each is built on first
+    // use and then kept current like the other indexes.
+    private final SortIndex<?>[] orders = new SortIndex<?>[BookOrder.values().length];
+    // Set while sortBy refills the list with the same books.
+    private boolean reordering;
+    // Occurrences of books the list holds more than once, beyond the first.
+    // A book is indexed once and stays indexed until its last occurrence
+    // leaves, so while this is 0 the list holds exactly the indexed books.
+    private int extraCopies;
+    // Books whose status changed but is not in the indexes yet, and how many.
+    private final Queue<Book> pendingStatus = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    // MODEL: A checkout publishes its status change right away only while a
+    // live view filters on status, or once this many changes are queued.
+    static final int MAX_PENDING_STATUS = 4096;
+    // Books the query cache may hold across all its results, about 4 MB
+    // of references.
+    static final int CACHED_ROWS = 1 << 20;
+    private volatile boolean statusViews;
+    // MODEL: Runs the live views' status updates and the status property
+    // updates after a commit, see AppModel.setViewExecutor. By default they
+    // run at once, under the write lock.
+    private volatile Executor viewExecutor = Runnable::run;
+    // Set while a transaction commits, by the thread holding the write lock.
+    private boolean committing;
+    // MODEL: Recent query and search results. The versions are bumped under
+    // the write lock when books come or go and when a status changes, which
+    // makes older results stale without clearing the cache.
+    private final QueryCache queryCache = new QueryCache(CACHED_ROWS);
+    private long catalogVersion;
+    private long statusVersion;
+    // MODEL: Filter results and libraries opened on a catalog file are
+    // only indexed when something needs the indexes or the list first
+    // changes. catalog is set while the library holds exactly the rows of a
+    // mapped catalog file, see Library(MappedBookStore); title lookups and
+    // queries are answered from the file until then.
+    private MappedBookStore catalog;
+    private volatile boolean indexed;
 
     public Library() {
-        this.books = FXCollections.observableArrayList();
+        this(FXCollections.observableArrayList());
     }
 
     public Library(ObservableList<Book> books) {
+        this(books, null);
+        for (Book book : books) {
+            indexBook(book);
+        }
+        this.indexed = true;
+    }
+
+    // MODEL: A library over a mapped catalog file. Opening it creates no
+    // book handles: the list creates them as it is read, e.g. for the rows
+    // a table shows, and nothing is indexed until it has to be.
+    public Library(MappedBookStore catalog) {
+        this(FXCollections.observableList(new MappedBookList(catalog)), catalog);
+        follow(catalog);
+    }
+
+    // Holds the books without indexing them yet, see ensureIndexed.
+    private Library(ObservableList<Book> books, MappedBookStore catalog) {
         this.books = books;
+        this.catalog = catalog;
+        // MODEL: Every add/remove on the collection also updates the indexes,
+        // whether it comes from addBook or from a bound view.
+        this.books.addListener((ListChangeListener<Book>) this::onBooksChanged);
+    }
+
+    // Builds the indexes of a filter result or a library opened on a
+    // catalog file. Call before taking the read lock; later changes keep
+    // them current as usual.
+    private void ensureIndexed() {
+        if (indexed) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (!indexed) {
+                for (Book book : books) {
+                    indexBook(book);
+                }
+                catalog = null;
+                catalogVersion++;
+                indexed = true;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        applyPendingStatus();
+    }
+
+    // For lookups a catalog file can answer by itself. Once catalog is
+    // cleared under the lock, the indexes are complete.
+    private void indexUnlessMapped() {
+        if (catalog == null) {
+            ensureIndexed();
+        }
+    }
+
+    private void onBooksChanged(ListChangeListener.Change<? extends Book> change) {
+        if (!indexed) {
+            // The indexes are built from what the list holds now, change
+            // included; a catalog file no longer matches it.
+            ensureIndexed();
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            applyChange(change);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        applyPendingStatus();
+    }
+
+    private void applyChange(ListChangeListener.Change<? extends Book> change) {
+        if (reordering) {
+            return;
+        }
+        while (change.next()) {
+            // Sorting only reorders the list, the indexed books stay the same.
+            if (change.wasPermutated() || change.wasUpdated()) {
+                continue;
+            }
+            catalogVersion++;
+            for (Book book : change.getRemoved()) {
+                // The list already lacks the removed books, so a book that is
+                // still in it, or was unindexed for an earlier occurrence in
+                // this change, was one of the extra copies.
+                if (extraCopies > 0 && (!index.contains(book) || books.contains(book))) {
+                    extraCopies--;
+                    continue;
+                }
+                for (LiveLibraryView view : views) {
+                    view.bookRemoved(book);
+                }
+                unindexBook(book);
+            }
+            for (Book book : change.getAddedSubList()) {
+                indexBook(book);
+            }
+            for (LiveLibraryView view : views) {
+                view.booksAdded(change.getAddedSubList());
+            }
+        }
+    }
+
+    private void indexBook(Book book) {
+        if (index.contains(book)) {
+            extraCopies++;
+            return;
+        }
+        titles.add(book);
+        index.add(book);
+        int row = index.rowOf(book);
+        words.add(row, book);
+        for (SortIndex<?> order : orders) {
+            if (order != null) {
+                order.add(row, book);
+            }
+        }
+        if (book.getStore() != null) {
+            follow(book.getStore());
+        } else {
+            book.addStatusListener(this);
+        }
+    }
+
+    private void unindexBook(Book book) {
+        unindexBook(book, book.getDisplayTitle());
+    }
+
+    // title is the one the book was indexed under.
+    private void unindexBook(Book book, String title) {
+        int row = index.rowOf(book);
+        if (row < 0) {
+            return;
+        }
+        if (book.getStore() == null) {
+            book.removeStatusListener(this);
+        }
+        titles.remove(book, title);
+        words.remove(row);
+        for (SortIndex<?> order : orders) {
+            if (order != null) {
+                order.remove(row);
+            }
+        }
+        index.remove(book);
+    }
+
+    private void follow(BookStore store) {
+        for (BookStore followed : stores) {
+            if (followed == store) {
+                return;
+            }
+        }
+        stores.add(store);
+        store.addStatusListener(this);
+    }
+
+    // MODEL: Keeps the status index and the live views current on checkout and return.
+    // Checkouts may come from many patrons' threads at once, so a change is
+    // only queued, without any lock. The status index catches up with the
+    // queue when a query that filters on status needs it, and writers drain
+    // it after their own changes. A long queue is drained by the thread
+    // that finds the write lock free; it never waits for it.
+    // Live views that filter on status need every change at once: while one
+    // is open, whichever thread holds the write lock applies every queued
+    // change; the other writers return at once instead of waiting in line.
+    // Only running queries (read lock) make a change wait then.
+    @Override
+    public void statusChanged(Book book, Status oldStatus, Status newStatus) {
+        pendingStatus.add(book);
+        if (!statusViews) {
+            if (pendingCount.incrementAndGet() >= MAX_PENDING_STATUS && lock.writeLock().tryLock()) {
+                if (committing) {
+                    lock.writeLock().unlock();
+                    return;
+                }
+                applyPendingStatusLocked();
+            }
+            return;
+        }
+        pendingCount.incrementAndGet();
+        while (!pendingStatus.isEmpty()) {
+            if (lock.writeLock().tryLock()) {
+                if (committing) {
+                    // Only the committing thread can get here: the commit
+                    // publishes the queue with its own changes.
+                    lock.writeLock().unlock();
+                    return;
+                }
+                applyPendingStatusLocked();
+            } else if (lock.isWriteLocked()) {
+                // The writer drains the queue again after it unlocks.
+                return;
+            } else {
+                lock.writeLock().lock();
+                applyPendingStatusLocked();
+            }
+        }
+    }
+
+    // MODEL: A book's title, author, genre or page count was edited through
+    // its properties, on the JavaFX thread. Every index holds the old
+    // values, so the book is indexed again as if it were removed and added;
+    // it gets a new row, and the views move it to where it now sorts.
+    @Override
+    public void bookEdited(Book book, String oldTitle) {
+        lock.writeLock().lock();
+        try {
+            if (!indexed) {
+                // Indexed later from the current values; only cached results go stale.
+                catalogVersion++;
+                return;
+            }
+            // Stores report every book they hold, so books of other libraries are skipped.
+            if (!index.contains(book)) {
+                return;
+            }
+            catalogVersion++;
+            for (LiveLibraryView view : views) {
+                view.bookRemoved(book);
+            }
+            unindexBook(book, oldTitle);
+            indexBook(book);
+            for (LiveLibraryView view : views) {
+                view.booksAdded(List.of(book));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        applyPendingStatus();
+    }
+
+    // Run by writers after they unlock, for changes that were queued
+    // meanwhile, and by readers before they read the status index.
+    private void applyPendingStatus() {
+        while (!pendingStatus.isEmpty() && !lock.isWriteLockedByCurrentThread()) {
+            lock.writeLock().lock();
+            applyPendingStatusLocked();
+        }
+    }
+
+    // Called with the write lock held; releases it.
+    private void applyPendingStatusLocked() {
+        try {
+            publishPendingStatus();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Moves every queued book to its current status in the indexes and
+    // tells the views about all of them at once. Needs the write lock.
+    private void publishPendingStatus() {
+        List<Book> changed = new ArrayList<>();
+        Book book;
+        while ((book = pendingStatus.poll()) != null) {
+            pendingCount.decrementAndGet();
+            if (!indexed) {
+                // Queries read the status from the catalog file; only the
+                // cached results go stale.
+                changed.add(book);
+                continue;
+            }
+            // Stores report every book they hold, so books of other libraries are skipped.
+            if (!index.contains(book)) {
+                continue;
+            }
+            // Re-read from the store: queued changes may be out of order.
+            index.refreshStatus(book);
+            changed.add(book);
+        }
+        if (changed.isEmpty()) {
+            return;
+        }
+        statusVersion++;
+        publishStatus(changed);
+    }
+
+    // Tells the views which books changed status, on the view executor.
+    // They look at the books again there, under the read lock, so a view
+    // opened after the change finds nothing left to move. Each view
+    // publishes one list change for them.
+    private void publishStatus(List<Book> changed) {
+        if (views.isEmpty()) {
+            return;
+        }
+        viewExecutor.execute(() -> {
+            lock.readLock().lock();
+            try {
+                for (LiveLibraryView view : views) {
+                    view.beginBatch();
+                    try {
+                        view.booksChanged(changed);
+                    } finally {
+                        view.endBatch();
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+        });
+    }
+
+    public void setViewExecutor(Executor viewExecutor) {
+        this.viewExecutor = viewExecutor;
+    }
+
+    // MODEL: Starts collecting changes to publish together, see LibraryTransaction.
+    public LibraryTransaction transaction() {
+        return new LibraryTransaction(this);
+    }
+
+    // MODEL: Applies a transaction under the write lock. Views hold back
+    // their changes until every change is in the indexes, then each
+    // publishes one list change, so no listener sees part of the
+    // transaction. Statuses go to the store only; the books' status
+    // properties, whose listeners may be anything, catch up on the view
+    // executor after the lock is released.
+    void commit(Map<Book, Status> statuses, List<Book> added, List<Book> removed) {
+        lock.writeLock().lock();
+        if (committing) {
+            lock.writeLock().unlock();
+            throw new IllegalStateException("A transaction is already committing on this thread");
+        }
+        committing = true;
+        try {
+            for (LiveLibraryView view : views) {
+                view.beginBatch();
+            }
+            try {
+                if (!removed.isEmpty()) {
+                    books.removeAll(removed);
+                }
+                if (!added.isEmpty()) {
+                    books.addAll(added);
+                }
+                for (Map.Entry<Book, Status> entry : statuses.entrySet()) {
+                    Book book = entry.getKey();
+                    book.setStoredStatus(entry.getValue());
+                    // A copy set back on the shelf can be lent again.
+                    if (book instanceof PrintBook && entry.getValue() == Status.AVAILABLE) {
+                        ((PrintBook) book).release();
+                    }
+                }
+                publishPendingStatus();
+            } finally {
+                for (LiveLibraryView view : views) {
+                    view.endBatch();
+                }
+            }
+        } finally {
+            committing = false;
+            lock.writeLock().unlock();
+        }
+        applyPendingStatus();
+        List<Book> changed = new ArrayList<>(statuses.keySet());
+        viewExecutor.execute(() -> {
+            for (Book book : changed) {
+                book.syncStatusProperty();
+            }
+        });
+    }
+
+    // MODEL: Returns a view of the matching books that follows every later
+    // change to this library. order may be null for catalog order.
+    // Filling and registering happen under the read lock, so no change is
+    // missed in between even when the view is built on a background thread.
+    public LiveLibraryView view(BookQuery query, Comparator<Book> order) {
+        ensureIndexed();
+        if (query.getStatus() != null) {
+            // From here on status changes are published at once; earlier
+            // ones are in the index before the view is filled.
+            statusViews = true;
+        }
+        lock.readLock().lock();
+        try {
+            LiveLibraryView view = new LiveLibraryView(this, query, order);
+            views.add(view);
+            return view;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    void removeView(LiveLibraryView view) {
+        views.remove(view);
+        statusViews = views.stream().anyMatch(open -> open.getQuery().getStatus() != null);
+    }
+
+    // Live views currently following this library.
+    int viewCount() {
+        return views.size();
+    }
+
+    // Returns the index row of the book, or -1 if it is not in this library.
+    int rowOf(Book book) {
+        return index.rowOf(book);
+    }
+
+    // MODEL: Stable id of a book for clients outside the JVM: its index row,
+    // which is never reused. -1 if the book is not in this library.
+    public int getBookId(Book book) {
+        ensureIndexed();
+        lock.readLock().lock();
+        try {
+            return index.rowOf(book);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // MODEL: The book with this id, or null if there is none (any more).
+    public Book getBookById(int id) {
+        ensureIndexed();
+        lock.readLock().lock();
+        try {
+            return id >= 0 && id < index.rowCount() ? index.bookAt(id) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // MODEL: Rebuilds a page cursor from its order and the id of the last
+    // book of the page, e.g. one a client sent back as text. Null if that
+    // book has been removed since.
+    public BookPage.Cursor cursorAt(BookOrder order, int id) {
+        SortIndex<?> sorted = order(order);
+        lock.readLock().lock();
+        try {
+            Object key = id >= 0 ? sorted.key(id) : null;
+            return key == null ? null : new BookPage.Cursor(order, key, id);
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     // MODEL: Book retrieval by index with validation
@@ -227,21 +1171,119 @@ class Library implements BookFilter, BookSort {
     // SEARCH FUNCTIONALITY
     public Book getBook(String title) {
         // MODEL: Retrieves search query from Controller
-        // MODEL: Iterates through the book collection
-        for (Book book : books) {
-            // MODEL: compares title (case-sensitive)
-            if (book.getTitle().toLowerCase().equals(title)) {
-                // MODEL: returns matching book to controller
-                return book;
+        // MODEL: Looks the normalized title up in the title index,
+        // returns null if no match found
+        indexUnlessMapped();
+        lock.readLock().lock();
+        try {
+            return catalog != null ? catalog.findByTitle(title) : titles.get(title);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // MODEL: Returns every copy with this title and author.
+    // Titles are not unique, so the author tells books of the same name apart.
+    public List<Book> getBooks(String title, String author) {
+        indexUnlessMapped();
+        lock.readLock().lock();
+        try {
+            List<Book> result = new ArrayList<>(1);
+            for (Book book : catalog != null ? catalog.findAllByTitle(title) : titles.getAll(title)) {
+                if (book.getAuthor().equals(author)) {
+                    result.add(book);
+                }
             }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // MODEL: Returns up to limit books whose title starts with prefix.
+    public List<Book> getBooksByTitlePrefix(String prefix, int limit) {
+        indexUnlessMapped();
+        lock.readLock().lock();
+        try {
+            return catalog != null ? catalog.findByTitlePrefix(prefix, limit) : titles.prefix(prefix, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // MODEL: Ranked search over the words of titles and authors (BM25).
+    // Returns up to limit books, best match first; any query word may match.
+    // Like query, the result is shared and unmodifiable.
+    public List<Book> search(String text, int limit) {
+        ensureIndexed();
+        lock.readLock().lock();
+        try {
+            // Keyed by the words, so "Dune " and "dune" share a result.
+            List<Object> key = List.of("search", FullTextIndex.tokenize(text), limit);
+            return cached(key, false, () -> {
+                List<FullTextIndex.Hit> hits = words.search(text, limit);
+                List<Book> result = new ArrayList<>(hits.size());
+                for (FullTextIndex.Hit hit : hits) {
+                    result.add(index.bookAt(hit.row));
+                }
+                return result;
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // MODEL: Type-ahead suggestions for what has been typed so far. Titles
+    // starting with the text come first, in title order, then the best
+    // full-text matches. The last word may still be incomplete, so it also
+    // matches the most common words it starts (unless the text ends in a
+    // space, or the word has fewer than MIN_COMPLETION letters).
+    // The result is shared and unmodifiable.
+    public List<Book> suggest(String text, int limit) {
+        if (text.isBlank()) {
+            return Collections.emptyList();
+        }
+        ensureIndexed();
+        lock.readLock().lock();
+        try {
+            List<Object> key = List.of("suggest", text.toLowerCase(Locale.ROOT).stripLeading(), limit);
+            return cached(key, false, () -> {
+                Set<Book> result = new LinkedHashSet<>(titles.prefix(text, limit));
+                List<String> tokens = FullTextIndex.tokenize(text);
+                boolean typing = !tokens.isEmpty() && Character.isLetterOrDigit(text.charAt(text.length() - 1));
+                if (typing) {
+                    String last = tokens.remove(tokens.size() - 1);
+                    if (last.length() >= MIN_COMPLETION) {
+                        tokens.addAll(words.completions(last, COMPLETIONS));
+                    }
+                }
+                if (result.size() < limit && !tokens.isEmpty()) {
+                    for (FullTextIndex.Hit hit : words.search(String.join(" ", tokens), limit)) {
+                        if (result.size() == limit) {
+                            break;
+                        }
+                        result.add(index.bookAt(hit.row));
+                    }
+                }
+                return new ArrayList<>(result);
+            });
+        } finally {
+            lock.readLock().unlock();
         }
-        // MODEL: returns null if no match found
-        return null;
     }
 
     public boolean hasBook(Book book) {
         // Validates if the book exists in the library.
-        return this.books.contains(book);
+        indexUnlessMapped();
+        lock.readLock().lock();
+        try {
+            if (catalog != null) {
+                return book != null && book.getStore() == catalog;
+            }
+            return this.index.contains(book);
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     public void addBook(Book book) {
@@ -249,6 +1291,11 @@ class Library implements BookFilter, BookSort {
         this.books.add(book);
     }
 
+    // MODEL: Adds many books with a single list change, used by bulk imports.
+    public void addBooks(Collection<? extends Book> added) {
+        this.books.addAll(added);
+    }
+
     public ObservableList<Book> libraryProperty() {
         // MODEL: Returns observable collection for view Binding
         return this.books;
@@ -266,126 +1313,252 @@ class Library implements BookFilter, BookSort {
         return result;
     }
 
-    // All methods below are for sorting / filtering.
-    @Override
-    public Library filterDigitalBook() {
-        Library digitalBooks = new Library();
+    // MODEL: Runs any combination of criteria against the indexes.
+    // The result may be shared with the cache: it is unmodifiable, so copy
+    // it before changing it.
+    public List<Book> query(BookQuery query) {
+        return cachedQuery(query);
+    }
 
-        for (Book book : books) {
-            if (book instanceof DigitalBook) {
-                digitalBooks.addBook(book);
-            }
-        }
+    // MODEL: Same as query, wrapped in a new Library. The new library is
+    // only indexed if it is queried in turn, so a filter costs one copy of
+    // the (usually cached) result.
+    public Library filter(BookQuery query) {
+        return result(cachedQuery(query));
+    }
 
-        digitalBooks.sortByTitle();
-        return digitalBooks;
+    private static Library result(List<Book> books) {
+        return new Library(FXCollections.observableArrayList(books), null);
+    }
 
+    // The shared, unmodifiable result of a query; callers copy it.
+    private List<Book> cachedQuery(BookQuery query) {
+        catchUpStatus(query);
+        Class<? extends Book> type = query.getType();
+        if (type != null && type != PrintBook.class && type != DigitalBook.class) {
+            // A catalog file only tells print and digital books apart.
+            ensureIndexed();
+        } else {
+            indexUnlessMapped();
+        }
+        lock.readLock().lock();
+        try {
+            MappedBookStore file = catalog;
+            return cached(query, query.getStatus() != null,
+                    () -> file != null ? file.select(query) : index.books(query.select(index)));
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
-    @Override
-    public Library filterDigitalBook(String author) {
-        Library digitalBooks = new Library();
+    // Applies the queued status changes before a query that filters on
+    // status reads the index (or its cached result). Call before taking
+    // the read lock.
+    private void catchUpStatus(BookQuery query) {
+        if (query.getStatus() != null) {
+            applyPendingStatus();
+        }
+    }
 
-        for (Book book : this.books) {
-            if (book instanceof DigitalBook && book.getAuthor().equals(author)) {
-                digitalBooks.addBook(book);
-            }
+    // MODEL: Looks a result up in the query cache, computing and caching it
+    // on a miss. Called under the read lock, so the versions cannot move
+    // while the result is computed.
+    private List<Book> cached(Object key, boolean usesStatus, Supplier<List<Book>> compute) {
+        List<Book> result = queryCache.get(key, catalogVersion, statusVersion);
+        if (result == null) {
+            result = Collections.unmodifiableList(compute.get());
+            queryCache.put(key, result, catalogVersion, statusVersion, usesStatus);
         }
+        return result;
+    }
 
-        digitalBooks.sortByAuthor();
-        return digitalBooks;
+    // MODEL: Hit, miss and eviction counts of the query cache.
+    public QueryCache getQueryCache() {
+        return queryCache;
     }
 
-    @Override
-    public Library filterDigitalBook(Genre genre) {
-        Library digitalBooks = new Library();
+    // MODEL: The first limit matching books in the given order (top-K),
+    // without building or sorting the whole result.
+    public List<Book> top(BookQuery query, BookOrder order, int limit) {
+        return page(query, order, null, limit).getBooks();
+    }
 
-        for (Book book : this.books) {
-            if (book instanceof DigitalBook && book.getGenre() == genre) {
-                digitalBooks.addBook(book);
+    // MODEL: The page of matching books that follows the cursor (null for
+    // the first page). A selective query keeps the best rows of its
+    // candidates in a bounded heap; otherwise the sort index is walked from
+    // the cursor until the page is full. Either way nothing is sorted and
+    // the full result is never built.
+    public BookPage page(BookQuery query, BookOrder order, BookPage.Cursor after, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Page size must be positive: " + limit);
+        }
+        if (after != null && after.getOrder() != order) {
+            throw new IllegalArgumentException("Cursor is for " + after.getOrder() + " order, not " + order);
+        }
+        SortIndex<?> sorted = order(order);
+        catchUpStatus(query);
+        lock.readLock().lock();
+        try {
+            List<BitSet> postings = query.postings(index);
+            IntPredicate accept = row -> query.accepts(index, postings, row);
+            Object afterKey = after == null ? null : after.getKey();
+            int afterRow = after == null ? -1 : after.getRow();
+            // One row more than asked tells whether another page follows.
+            BitSet candidates = postings.get(0);
+            int[] rows = candidates.cardinality() < sorted.size() / 64
+                    ? sorted.heap(candidates, afterKey, afterRow, accept, limit + 1)
+                    : sorted.walk(afterKey, afterRow, accept, limit + 1);
+            int count = Math.min(rows.length, limit);
+            List<Book> result = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                result.add(index.bookAt(rows[i]));
+            }
+            BookPage.Cursor next = null;
+            if (rows.length > limit) {
+                int last = rows[count - 1];
+                next = new BookPage.Cursor(order, sorted.key(last), last);
             }
+            return new BookPage(result, next);
+        } finally {
+            lock.readLock().unlock();
         }
+    }
 
-        digitalBooks.sortByTitle();
-        return digitalBooks;
+    // MODEL: Same as filter, with the books already in the given order, so
+    // the new library needs no sort.
+    private Library filter(BookQuery query, BookOrder order) {
+        return result(query(query, order));
     }
 
-    @Override
-    public Library filterPrintBook() {
-        Library printBooks = new Library();
+    // Matching books in the given order, read off the sort index.
+    private List<Book> query(BookQuery query, BookOrder order) {
+        SortIndex<?> sorted = order(order);
+        catchUpStatus(query);
+        lock.readLock().lock();
+        try {
+            return cached(List.of(query, order), query.getStatus() != null,
+                    () -> sorted.books(index, query.select(index)));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
 
-        for (Book book : this.books) {
-            if (book instanceof PrintBook) {
-                printBooks.addBook(book);
+    // Returns an ordering, building it under the write lock on first use.
+    private SortIndex<?> order(BookOrder which) {
+        ensureIndexed();
+        int slot = which.ordinal();
+        lock.readLock().lock();
+        try {
+            if (orders[slot] != null) {
+                return orders[slot];
             }
+        } finally {
+            lock.readLock().unlock();
         }
-
-        printBooks.sortByTitle();
-        return printBooks;
+        SortIndex<?> built;
+        lock.writeLock().lock();
+        try {
+            if (orders[slot] == null) {
+                SortIndex<?> order = SortIndex.of(which, index);
+                BitSet live = index.all();
+                for (int row = live.nextSetBit(0); row >= 0; row = live.nextSetBit(row + 1)) {
+                    order.add(row, index.bookAt(row));
+                }
+                orders[slot] = order;
+            }
+            built = orders[slot];
+        } finally {
+            lock.writeLock().unlock();
+        }
+        // Status changes that arrived meanwhile were left to this writer.
+        applyPendingStatus();
+        return built;
     }
 
-    @Override
-    public Library filterPrintBook(String author) {
-        Library printBooks = new Library();
-
-        for (Book book : this.books) {
-            if (book instanceof PrintBook && book.getAuthor().equals(author)) {
-                printBooks.addBook(book);
+    // Reorders the list from the sort index. When every book is in the list
+    // once, the list is simply refilled from a walk of the index (O(n)) and
+    // the indexes ignore that change. Otherwise it is sorted by the positions
+    // in the index: two ints are compared instead of two strings.
+    private void sortBy(BookOrder which) {
+        SortIndex<?> order = order(which);
+        lock.writeLock().lock();
+        try {
+            if (extraCopies == 0) {
+                // The list holds each indexed book once, in some order.
+                List<Book> sorted = order.books(index, index.all());
+                reordering = true;
+                try {
+                    books.setAll(sorted);
+                } finally {
+                    reordering = false;
+                }
+            } else {
+                int[] ranks = order.ranks(index.rowCount());
+                // The list fires a permutation, which leaves the indexes as they are.
+                books.sort(Comparator.comparingInt(book -> ranks[index.rowOf(book)]));
             }
+        } finally {
+            lock.writeLock().unlock();
         }
+        applyPendingStatus();
+    }
+
+    // All methods below are for sorting / filtering.
+    // Each filter is a BookQuery answered from the indexes.
+    @Override
+    public Library filterDigitalBook() {
+        return filter(new BookQuery().type(DigitalBook.class), BookOrder.TITLE);
 
-        printBooks.sortByTitle();
-        return printBooks;
     }
 
     @Override
-    public Library filterPrintBook(Genre genre) {
-        Library printBooks = new Library();
+    public Library filterDigitalBook(String author) {
+        return filter(new BookQuery().type(DigitalBook.class).author(author), BookOrder.AUTHOR);
+    }
 
-        for (Book book : this.books) {
-            if (book instanceof PrintBook && book.getGenre() == genre) {
-                printBooks.addBook(book);
-            }
-        }
+    @Override
+    public Library filterDigitalBook(Genre genre) {
+        return filter(new BookQuery().type(DigitalBook.class).genre(genre), BookOrder.TITLE);
+    }
 
-        return printBooks;
+    @Override
+    public Library filterPrintBook() {
+        return filter(new BookQuery().type(PrintBook.class), BookOrder.TITLE);
     }
 
     @Override
-    public Library filterBooks(String author) {
-        Library books = new Library();
+    public Library filterPrintBook(String author) {
+        return filter(new BookQuery().type(PrintBook.class).author(author), BookOrder.TITLE);
+    }
 
-        for (Book book : this.books) {
-            if (book.getAuthor().equals(author)) {
-                books.addBook(book);
-            }
-        }
+    @Override
+    public Library filterPrintBook(Genre genre) {
+        return filter(new BookQuery().type(PrintBook.class).genre(genre));
+    }
 
-        books.sortByTitle();
-        return books;
+    @Override
+    public Library filterBooks(String author) {
+        return filter(new BookQuery().author(author), BookOrder.TITLE);
     }
 
     @Override
     public Library filterBooks(Genre genre) {
-        Library books = new Library();
-
-        for (Book book : this.books) {
-            if (book.getGenre() == genre) {
-                books.addBook(book);
-            }
-        }
+        return filter(new BookQuery().genre(genre));
+    }
 
-        return books;
+    // MODEL: Returns all books currently in the given status.
+    public Library filterBooks(Status status) {
+        return filter(new BookQuery().status(status));
     }
 
     @Override
     public void sortByTitle() {
-        Collections.sort(books, Book.byTitle);
+        sortBy(BookOrder.TITLE);
     }
 
     @Override
     public void sortByAuthor() {
-        Collections.sort(books, Book.byAuthor);
+        sortBy(BookOrder.AUTHOR);
     }
 }
 
@@ -427,83 +1600,254 @@ enum Status {
 }
 
 abstract class Book {
+    // MODEL: The attribute values live in a BookStore row. The JavaFX
+    // properties are only created when something (usually a TableView cell)
+    // asks for them, so books that are never shown stay small. Edits made
+    // through a property are written back to the row.
+    // A book built from properties has no store row: it reads its values
+    // from the properties it was given, and keeps the rest in detached.
+    protected final BookStore store;
+    protected final int row;
     protected SimpleStringProperty title;
     protected SimpleStringProperty author;
     protected SimpleObjectProperty<Genre> genre;
     protected SimpleIntegerProperty pageCount;
     protected SimpleObjectProperty<Status> status;
+    private final Detached detached;
+
+    // Values of a book built from properties that no property holds, and
+    // the libraries following it. The status is read and changed from any
+    // thread, so it is not read from its property, which belongs to the
+    // JavaFX thread. One object listens to all five properties.
+    private static final class Detached extends BookListeners implements ChangeListener<Object> {
+        private static final VarHandle STATUS;
+        static {
+            try {
+                STATUS = MethodHandles.lookup().findVarHandle(Detached.class, "status", Status.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private final Book book;
+        private final Enum<?> detail;
+        private volatile Status status;
+
+        Detached(Book book, Enum<?> detail, Status status) {
+            this.book = book;
+            this.detail = detail;
+            this.status = status;
+        }
 
-    public Book(SimpleStringProperty title, SimpleStringProperty author, SimpleObjectProperty<Genre> genre,
-            SimpleIntegerProperty pageCount, SimpleObjectProperty<Status> status) {
+        @Override
+        public void changed(ObservableValue<?> property, Object oldValue, Object newValue) {
+            if (property == book.status) {
+                book.setStoredStatus((Status) newValue);
+            } else if (property == book.title) {
+                bookEdited(book, (String) oldValue);
+            } else {
+                bookEdited(book, book.getDisplayTitle());
+            }
+        }
+    }
+
+    // Keeps the given properties as the book's values; detail is the format
+    // of a digital book or the cover type of a print book.
+    protected Book(SimpleStringProperty title, SimpleStringProperty author, SimpleObjectProperty<Genre> genre,
+            SimpleIntegerProperty pageCount, Enum<?> detail, SimpleObjectProperty<Status> status) {
+        this.store = null;
+        this.row = -1;
         this.title = title;
         this.author = author;
         this.genre = genre;
         this.pageCount = pageCount;
         this.status = status;
+        this.detached = new Detached(this, detail, status.get());
+        title.addListener(detached);
+        author.addListener(detached);
+        genre.addListener(detached);
+        pageCount.addListener(detached);
+        status.addListener(detached);
+    }
+
+    // Compact book backed by an existing store row.
+    protected Book(BookStore store, int row) {
+        this.store = store;
+        this.row = row;
+        this.detached = null;
     }
 
-    static final Comparator<Book> byTitle = Comparator.comparing(Book::getTitle);
-    static final Comparator<Book> byAuthor = Comparator.comparing(Book::getAuthor);
+    // Same order as the library's sort indexes: case-insensitive collation.
+    static final Comparator<Book> byTitle = Comparator.comparing(Book::getDisplayTitle, SortIndex::compare);
+    static final Comparator<Book> byAuthor = Comparator.comparing(Book::getAuthor, SortIndex::compare);
     static final Comparator<Book> byGenre = Comparator.comparing(Book::getGenre);
 
     public String toString() {
-        return "Title: " + this.title + " By Author: " + this.author + " (Genre: " + this.genre + " )";
+        return "Title: " + getDisplayTitle() + " By Author: " + getAuthor() + " (Genre: " + getGenre() + " )";
     }
 
     public String getFormattedTitle() {
-        return this.title + " by " + this.author;
+        return getDisplayTitle() + " by " + getAuthor();
+    }
+
+    // The store holding the book's row, or null for a book built from properties.
+    public BookStore getStore() {
+        return store;
     }
 
     public SimpleStringProperty titleProperty() {
+        if (title == null) {
+            title = new SimpleStringProperty(this, "title", store.title(row));
+            followTitle(title);
+        }
         return title;
     }
 
     public String getTitle() {
-        return titleProperty().get().toLowerCase();
+        return getDisplayTitle().toLowerCase();
+    }
+
+    // Title as entered, without creating the property.
+    public String getDisplayTitle() {
+        return store != null ? store.title(row) : title.get();
     }
 
     public SimpleStringProperty authorProperty() {
+        if (author == null) {
+            author = new SimpleStringProperty(this, "author", store.author(row));
+            followEdit(author);
+        }
         return author;
     }
 
     public String getAuthor() {
-        return authorProperty().get();
+        return store != null ? store.author(row) : author.get();
     }
 
     public SimpleObjectProperty<Genre> genreProperty() {
+        if (genre == null) {
+            genre = new SimpleObjectProperty<>(this, "genre", store.genre(row));
+            followEdit(genre);
+        }
         return genre;
     }
 
     public Genre getGenre() {
-        return genreProperty().get();
+        return store != null ? store.genre(row) : genre.get();
     }
 
     public SimpleIntegerProperty pageCountProperty() {
+        if (pageCount == null) {
+            pageCount = new SimpleIntegerProperty(this, "pageCount", store.pageCount(row));
+            followEdit(pageCount);
+        }
         return pageCount;
     }
 
     public SimpleObjectProperty<Status> statusProperty() {
+        if (status == null) {
+            status = new SimpleObjectProperty<>(this, "status", store.status(row));
+            followStatus(status);
+        }
         return status;
     }
 
+    // MODEL: Edits made through a created property go to the store row,
+    // then to the libraries holding the book, which index it again. The old
+    // title lets them find it in their title index.
+    private void followTitle(SimpleStringProperty property) {
+        property.addListener((obs, oldVal, newVal) -> {
+            store.setTitle(row, newVal);
+            store.edited(this, oldVal);
+        });
+    }
+
+    private void followEdit(ObservableValue<?> property) {
+        property.addListener((obs, oldVal, newVal) -> {
+            if (property == author) {
+                store.setAuthor(row, author.get());
+            } else if (property == genre) {
+                store.setGenre(row, genre.get());
+            } else {
+                store.setPageCount(row, pageCount.get());
+            }
+            store.edited(this, getDisplayTitle());
+        });
+    }
+
+    // Writes changes made through the property back to the store row,
+    // which also notifies the libraries holding this book.
+    private void followStatus(SimpleObjectProperty<Status> property) {
+        property.addListener((obs, oldVal, newVal) -> store.setStatus(this, newVal));
+    }
+
     public Status getStatus() {
-        return this.statusProperty().get();
+        return store != null ? store.status(row) : detached.status;
     }
 
     public void setStatus(final Status status) {
-        this.statusProperty().set(status);
+        if (this.status != null) {
+            // The property listener records the change.
+            this.status.set(status);
+        } else {
+            store.setStatus(this, status);
+        }
+    }
+
+    // Changes the status without touching the property, for callers that
+    // must not run property listeners yet (they hold a lock, or are not on
+    // the JavaFX thread). Call syncStatusProperty once they can.
+    void setStoredStatus(Status status) {
+        if (store != null) {
+            store.setStatus(this, status);
+            return;
+        }
+        Status oldStatus;
+        do {
+            oldStatus = detached.status;
+            if (oldStatus == status) {
+                return;
+            }
+        } while (!Detached.STATUS.compareAndSet(detached, oldStatus, status));
+        detached.statusChanged(this, oldStatus, status);
+    }
+
+    // Brings the status property, if it was created, up to the stored status.
+    void syncStatusProperty() {
+        if (this.status != null) {
+            this.status.set(getStatus());
+        }
+    }
+
+    // MODEL: Libraries follow a book built from properties one by one; the
+    // books of a store are followed through the store.
+    void addStatusListener(StatusListener listener) {
+        if (detached != null) {
+            detached.add(listener);
+        }
+    }
+
+    void removeStatusListener(StatusListener listener) {
+        if (detached != null) {
+            detached.remove(listener);
+        }
+    }
+
+    // Format of a digital book or cover type of a print book built from properties.
+    protected Enum<?> detachedDetail() {
+        return detached.detail;
     }
 
     public int getPageCount() {
-        return pageCountProperty().get();
+        return store != null ? store.pageCount(row) : pageCount.get();
     }
 
     public void displayInfo() {
         System.out.println(
-                "Title: " + this.title +
-                        "\nAuthor: " + this.author +
-                        "\nGenre: " + this.genre +
-                        "\nPage Count: " + this.pageCount);
+                "Title: " + getDisplayTitle() +
+                        "\nAuthor: " + getAuthor() +
+                        "\nGenre: " + getGenre() +
+                        "\nPage Count: " + getPageCount());
     }
 }
 
@@ -518,18 +1862,21 @@ enum Format {
 }
 
 class DigitalBook extends Book {
-    private Format format;
     private boolean canDownload;
 
     public DigitalBook(SimpleStringProperty title, SimpleStringProperty author, SimpleObjectProperty<Genre> genre,
             SimpleIntegerProperty pageCount, Format format, SimpleObjectProperty<Status> status) {
-        super(title, author, genre, pageCount, status);
-        this.format = format;
+        super(title, author, genre, pageCount, format, status);
+        this.canDownload = this.getStatus() == Status.DOWNLOADABLE;
+    }
+
+    DigitalBook(BookStore store, int row) {
+        super(store, row);
         this.canDownload = this.getStatus() == Status.DOWNLOADABLE;
     }
 
     public Format getFormat() {
-        return this.format;
+        return store != null ? store.format(row) : (Format) detachedDetail();
     }
 
     public boolean canDownload() {
@@ -540,7 +1887,7 @@ class DigitalBook extends Book {
     public void displayInfo() {
         super.displayInfo();
         System.out.println(
-                "Format: " + this.format +
+                "Format: " + getFormat() +
                         "\nCan download: " + this.canDownload);
     }
 }
@@ -555,18 +1902,32 @@ enum CoverType {
 }
 
 class PrintBook extends Book {
-    private CoverType coverType;
-    private boolean available;
+    // MODEL: Availability of this copy. Lending flips it with compare-and-set,
+    // so two patrons checking out at once can never both get the copy.
+    private static final VarHandle AVAILABLE;
+    static {
+        try {
+            AVAILABLE = MethodHandles.lookup().findVarHandle(PrintBook.class, "available", boolean.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private volatile boolean available;
 
     PrintBook(SimpleStringProperty title, SimpleStringProperty author, SimpleObjectProperty<Genre> genre,
             SimpleIntegerProperty pageCount, CoverType coverType, SimpleObjectProperty<Status> status) {
-        super(title, author, genre, pageCount, status);
-        this.coverType = coverType;
+        super(title, author, genre, pageCount, coverType, status);
+        this.available = this.getStatus() == Status.AVAILABLE;
+    }
+
+    PrintBook(BookStore store, int row) {
+        super(store, row);
         this.available = this.getStatus() == Status.AVAILABLE;
     }
 
     public CoverType getCoverType() {
-        return this.coverType;
+        return store != null ? store.coverType(row) : (CoverType) detachedDetail();
     }
 
     public boolean getAvailable() {
@@ -577,11 +1938,21 @@ class PrintBook extends Book {
         this.available = available;
     }
 
+    // MODEL: Takes the copy if it is available; false if someone else has it.
+    public boolean tryLend() {
+        return AVAILABLE.compareAndSet(this, true, false);
+    }
+
+    // MODEL: Puts a lent copy back; false if it was not lent.
+    public boolean release() {
+        return AVAILABLE.compareAndSet(this, false, true);
+    }
+
     @Override
     public void displayInfo() {
         super.displayInfo();
         System.out.println(
-                "Cover Type: " + this.coverType.name());
+                "Cover Type: " + getCoverType().name());
     };
 
 }
@@ -1,8 +1,18 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import javafx.application.Platform;
+import javafx.beans.value.ChangeListener;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.control.RadioButton;
+import javafx.scene.control.SelectionMode;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableView;
 import javafx.scene.control.TextField;
@@ -13,7 +23,10 @@ import javafx.scene.text.Font;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
 
-public class AppView {
+// Final: the constructor builds the screens through its own methods.
+public final class AppView {
+    // VIEW: Rows in the type-ahead table of the search screen
+    private static final int SUGGESTIONS = 20;
     // VIEW: UI components
     private TableView<Book> borrowedBookView;
     private TableView<Book> downloadedBookView;
@@ -23,9 +36,41 @@ public class AppView {
     private Stage primaryStage;
     private Scene scene;
     private Button userNeedHelp;
+    // VIEW: Each screen is built on its first visit and reused afterwards,
+    // so a long kiosk session keeps one scene, table and set of bindings
+    // per screen instead of a new one per click.
+    private Scene sceneOpt1;
+    private Scene sceneOpt2;
+    private Scene sceneOpt3;
+    private TextField searchField;
+    private Stage findResultsStage;
+    private Stage searchResultsStage;
+    private TableView<Book> searchResultsView;
+    // VIEW: Dialogs are built on first use and shown again afterwards.
+    private Stage filterStage;
+    private ToggleGroup filterToggles;
+    private Stage checkOutStage;
+    private Label checkOutTitle;
+    private Label checkOutAuthor;
+    private Label checkOutGenre;
+    private Button checkOutButton;
+    private Stage findBookStage;
+    private ToggleGroup findFormatToggles;
+    private ToggleGroup findGenreToggles;
+    private Stage notFoundStage;
+    private Stage popUpStage;
+    private Label popUpMessage;
     // VIEW: Holds references to Controller and Model for the MVC pattern.
     private AppController controller;
     private AppModel model;
+    // VIEW: Registered once on the model and removed by dispose().
+    private final ChangeListener<Number> overMaximumListener = (obs, oldVal, newVal) -> {
+        if (newVal.intValue() >= AppModel.MAX_BORROWED) {
+            controller.setOverMaximum(true);
+        } else {
+            controller.setOverMaximum(false);
+        }
+    };
 
     // VIEW: Constructor
     public AppView(AppController controller, AppModel model, Stage primaryStage) {
@@ -47,6 +92,12 @@ public class AppView {
         return scene;
     }
 
+    // VIEW: Removes what this view registered on the model. Only needed when
+    // the model outlives the window.
+    public void dispose() {
+        model.countBorrowedBookProperty().removeListener(overMaximumListener);
+    }
+
     // VIEW: UI layout and setup
     public void createAndConfigurePane() {
         view = new VBox(10);
@@ -69,23 +120,78 @@ public class AppView {
         optionBox.setAlignment(Pos.CENTER);
 
         // VIEW: Event handling and user interactions
-        option1.setOnAction(e -> primaryStage.setScene(createSceneOpt1()));
-        option2.setOnAction(e -> primaryStage.setScene(createSceneOpt2()));
-        option3.setOnAction(e -> primaryStage.setScene(createSceneOpt3()));
+        option1.setOnAction(e -> navigate("allBooks", this::createSceneOpt1));
+        option2.setOnAction(e -> navigate("searchBooks", this::createSceneOpt2));
+        option3.setOnAction(e -> navigate("yourBooks", this::createSceneOpt3));
 
         view.getChildren().addAll(headingLabel, titleLabel, optionBox);
     }
 
-    // Scence for the "View all books" button
-    // Displays all books including book information and status.
-    // Buttons for the user to checkout a book, filter books,
-    // or go back to menu.
-    public Scene createSceneOpt1() {
-        Label heading = new Label("List of books: ");
-        heading.setFont(new Font("Arial", 20));
-        tableView = new TableView<>();
+    // VIEW: Switches screens; the time to get the scene is recorded as
+    // "navigate.<screen>" in the controller's metrics.
+    private void navigate(String screen, Supplier<Scene> screens) {
+        primaryStage.setScene(controller.getMetrics().time("navigate." + screen, screens));
+    }
 
-        // VIEW: Table setup
+    // VIEW: Walks through every menu screen the given number of times, as a
+    // long kiosk session would, and passes a report of how much the heap grew
+    // and how long each click took to onReport. One click is made per pulse,
+    // and a click counts until the pulse that laid the new screen out, so CSS
+    // and layout are part of it. The screens are cached, and the live views
+    // they open stay bounded (see ScreenSwitchTest). Call on the JavaFX thread.
+    public void soak(int rounds, Consumer<String> onReport) {
+        LibraryMetrics metrics = controller.getMetrics();
+        boolean enabled = metrics.isEnabled();
+        metrics.setEnabled(true);
+        List<Runnable> clicks = List.of(
+                () -> navigate("allBooks", this::createSceneOpt1),
+                () -> navigate("searchBooks", this::createSceneOpt2),
+                () -> navigate("yourBooks", this::createSceneOpt3),
+                () -> primaryStage.setScene(scene));
+        LatencyHistogram latency = new LatencyHistogram();
+        long before = usedHeap();
+        soakClick(clicks, 0, rounds * clicks.size(), latency, () -> {
+            long after = usedHeap();
+            metrics.setEnabled(enabled);
+            onReport.accept(String.format("%d rounds, heap %d KB -> %d KB (%+d KB)%n"
+                    + "click to laid out: %d clicks, p50 %.2f ms, p99 %.2f ms, max %.2f ms%n%s", rounds,
+                    before / 1024, after / 1024, (after - before) / 1024, latency.getCount(),
+                    latency.getPercentile(50) / 1e6, latency.getPercentile(99) / 1e6, latency.getMax() / 1e6,
+                    metrics.getReport()));
+        });
+    }
+
+    // Makes the next click, then waits for the pulse that lays out the new
+    // screen before the one after.
+    private void soakClick(List<Runnable> clicks, int next, int total, LatencyHistogram latency, Runnable done) {
+        if (next == total) {
+            done.run();
+            return;
+        }
+        long start = System.nanoTime();
+        clicks.get(next % clicks.size()).run();
+        Scene shown = primaryStage.getScene();
+        Runnable[] laidOut = new Runnable[1];
+        laidOut[0] = () -> {
+            latency.record(System.nanoTime() - start);
+            // Listeners may not be removed while the pulse runs them.
+            Platform.runLater(() -> {
+                shown.removePostLayoutPulseListener(laidOut[0]);
+                soakClick(clicks, next + 1, total, latency, done);
+            });
+        };
+        shown.addPostLayoutPulseListener(laidOut[0]);
+        Platform.requestNextPulse();
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    // VIEW: Adds the usual book columns to a table.
+    private static void addBookColumns(TableView<Book> table, boolean withStatus) {
         TableColumn<Book, String> col1 = new TableColumn<>("Title");
         col1.setCellValueFactory(cell -> cell.getValue().titleProperty());
         col1.setMinWidth(220);
@@ -95,11 +201,35 @@ public class AppView {
         col3.setCellValueFactory(cell -> cell.getValue().genreProperty());
         TableColumn<Book, Integer> col4 = new TableColumn<>("Page Count");
         col4.setCellValueFactory(cell -> cell.getValue().pageCountProperty().asObject());
-        TableColumn<Book, Status> col5 = new TableColumn<>("Status");
-        col5.setCellValueFactory(cell -> cell.getValue().statusProperty());
+        table.getColumns().addAll(List.of(col1, col2, col3, col4));
+        if (withStatus) {
+            TableColumn<Book, Status> col5 = new TableColumn<>("Status");
+            col5.setCellValueFactory(cell -> cell.getValue().statusProperty());
+            table.getColumns().add(col5);
+        }
+    }
+
+    // Scence for the "View all books" button
+    // Displays all books including book information and status.
+    // Buttons for the user to checkout a book, filter books,
+    // or go back to menu.
+    public Scene createSceneOpt1() {
+        // VIEW: Back on this screen the table shows the whole library again,
+        // as it did when the screen was new (a filter may have replaced it).
+        if (sceneOpt1 != null) {
+            tableView.setItems(controller.getLibrary().libraryProperty());
+            tableView.getSelectionModel().clearSelection();
+            return sceneOpt1;
+        }
+        Label heading = new Label("List of books: ");
+        heading.setFont(new Font("Arial", 20));
+        tableView = new TableView<>();
 
-        tableView.getColumns().addAll(col1, col2, col3, col4, col5);
+        // VIEW: Table setup
+        addBookColumns(tableView, true);
         tableView.setItems(controller.getLibrary().libraryProperty());
+        // VIEW: Several books can be selected and checked out as one cart.
+        tableView.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
 
         Button backButton = new Button("Back to Menu");
         backButton.setOnAction(e -> {
@@ -108,6 +238,20 @@ public class AppView {
 
         Button checkOutButton = new Button("Checkout");
         checkOutButton.setOnAction(e -> {
+            List<Book> selectedBooks = new ArrayList<>(tableView.getSelectionModel().getSelectedItems());
+            if (selectedBooks.size() > 1) {
+                // CONTROLLER: the whole cart is checked out, or none of it.
+                controller.checkoutBooksAsync(selectedBooks, checkedOut -> {
+                    if (checkedOut) {
+                        this.createPopUpForm(primaryStage,
+                                "You have successfully checked out " + selectedBooks.size() + " books!");
+                    } else {
+                        this.createPopUpForm(primaryStage, "These books can't all be checked out."
+                                + "\nSome may be unavailable, or they would go over your borrowing limit.");
+                    }
+                });
+                return;
+            }
             Book selectedBook = tableView.getSelectionModel().getSelectedItem();
             if (selectedBook != null) {
                 this.checkOutForm(selectedBook);
@@ -124,23 +268,8 @@ public class AppView {
 
         VBox viewOpt1 = new VBox(10, heading, tableView, buttonRow, countBookField);
         viewOpt1.setAlignment(Pos.CENTER);
-        Scene scene1 = new Scene(viewOpt1, 800, 500);
-
-        // This listeners fires when the user's book count is updated.
-        // It read whether the new value reaches a certain threshold
-        // and calls the controller to update the overMaximumProperty.
-        // VIEW: Observes changes to the user's borrowed book count and reacts to
-        // updates.
-        // CONTROLLER: Updates the overMaximumProperty if the threshold is reached.
-        // MODEL: Stores and maanges the user's borrowed book count.
-        model.countBorrowedBookProperty().addListener((obs, oldVal, newVal) -> {
-            if (newVal.intValue() >= 3) {
-                controller.setOverMaximum(true);
-            } else {
-                controller.setOverMaximum(false);
-            }
-        });
-        return scene1;
+        sceneOpt1 = new Scene(viewOpt1, 800, 500);
+        return sceneOpt1;
     }
 
     // Opens a modal form that allows the user to filter the library
@@ -150,6 +279,15 @@ public class AppView {
     // MODEL: Provides the filtered data
     // VIEW: Updates the table view with the filtered dataset.
     public void filterForm() {
+        if (filterStage == null) {
+            filterStage = createFilterStage();
+        }
+        filterToggles.selectToggle(null);
+        filterStage.show();
+    }
+
+    // VIEW: The window behind filterForm, built once.
+    private Stage createFilterStage() {
         Stage filter = new Stage();
         filter.initOwner(primaryStage);
         filter.initModality(Modality.APPLICATION_MODAL);
@@ -160,24 +298,27 @@ public class AppView {
 
         filter1.setToggleGroup(toggleGroup);
         filter2.setToggleGroup(toggleGroup);
+        filterToggles = toggleGroup;
 
         HBox filterRow = new HBox(10, filter1, filter2);
         filterRow.setAlignment(Pos.CENTER);
         Button submitBtn = new Button("Choose");
         submitBtn.setOnAction(e -> {
             // MVC FLOW: User interaction -> View -> Controller -> Model
+            // The query runs in the background; choosing again before it
+            // finishes cancels the previous one.
             if (filter1.isSelected()) {
                 // VIEW -> CONTROLLER
-                Library printLibrary = this.controller.filterPrintBook();
-                // VIEW: updates with filtered data
-                tableView.setItems(printLibrary.libraryProperty());
+                this.controller.viewAsync("filter", new BookQuery().type(PrintBook.class),
+                        // VIEW: binds to the live view, later checkouts update it in place
+                        printLibrary -> tableView.setItems(printLibrary.libraryProperty()));
                 filter.close();
 
             } else if (filter2.isSelected()) {
                 // VIEW -> CONTROLLER
-                Library digitalLibrary = this.controller.filterDigitalBook();
-                // VIEW: updates with filtered data
-                tableView.setItems(digitalLibrary.libraryProperty());
+                this.controller.viewAsync("filter", new BookQuery().type(DigitalBook.class),
+                        // VIEW: binds to the live view, later checkouts update it in place
+                        digitalLibrary -> tableView.setItems(digitalLibrary.libraryProperty()));
                 filter.close();
             }
         });
@@ -188,7 +329,7 @@ public class AppView {
         VBox root = new VBox(10, heading, filterRow, btnRow);
         Scene filterScene = new Scene(root, 300, 90);
         filter.setScene(filterScene);
-        filter.show();
+        return filter;
     }
 
     // This method opens a checkout form allowing the user to borrow or download a
@@ -200,38 +341,14 @@ public class AppView {
     // MODEL: Updates the book's availability and the user's borrowed/downloaded
     // list.
     public void checkOutForm(Book selectedBook) {
-        Stage checkOut = new Stage();
-        checkOut.initOwner(primaryStage);
-        checkOut.initModality(Modality.APPLICATION_MODAL);
-
-        Label heading = new Label("Book details: ");
-        heading.setFont(new Font("Arial", 20));
-        String bookName = selectedBook.getTitle();
-        String bookAuthor = selectedBook.getAuthor();
-        String bookType = selectedBook.getGenre().name();
-
-        Label nameLabel = new Label(bookName);
-        Label authorLabel = new Label(bookAuthor);
-        Label typeLabel = new Label(bookType);
-
-        HBox nameRow = new HBox(10, new Label("Title: "), nameLabel);
-        HBox authorRow = new HBox(10, new Label("Author: "), authorLabel);
-        HBox typeRow = new HBox(10, new Label("Type: "), typeLabel);
-
-        Button checkoutBtnForForm;
-        Label successLabel = new Label();
-        successLabel.setAlignment(Pos.CENTER);
-        checkoutBtnForForm = new Button();
-
-        Button cancelBtn = new Button("Cancel");
-        cancelBtn.setOnAction(e -> checkOut.close());
-
-        HBox buttonRow = new HBox(10, checkoutBtnForForm, cancelBtn);
-        buttonRow.setAlignment(Pos.CENTER);
-        VBox root = new VBox(10, heading, nameRow, authorRow, typeRow, buttonRow, successLabel);
-        root.setAlignment(Pos.CENTER);
-        Scene checkoutScene = new Scene(root, 300, 300);
-        checkOut.setScene(checkoutScene);
+        if (checkOutStage == null) {
+            checkOutStage = createCheckOutStage();
+        }
+        Stage checkOut = checkOutStage;
+        checkOutTitle.setText(selectedBook.getTitle());
+        checkOutAuthor.setText(selectedBook.getAuthor());
+        checkOutGenre.setText(selectedBook.getGenre().name());
+        Button checkoutBtnForForm = checkOutButton;
 
         // This code displays the appropriate labels for physical books (PrintBook) in
         // the library system.
@@ -244,9 +361,10 @@ public class AppView {
             if (selectedBook instanceof DigitalBook) {
                 checkoutBtnForForm.setText("Download");
                 checkoutBtnForForm.setOnAction(e -> {
-                    controller.checkoutBook(selectedBook);
                     checkOut.close();
-                    this.createPopUpForm(primaryStage, "You have successfully downloaded the book!");
+                    controller.checkoutBookAsync(selectedBook, downloaded -> this.createPopUpForm(primaryStage,
+                            downloaded ? "You have successfully downloaded the book!"
+                                    : "This book can't be downloaded"));
                 });
                 checkOut.show();
 
@@ -266,13 +384,14 @@ public class AppView {
                     // MVC FLOW: Borrow process
                     // VIEW: Displays the checkout form.
                     checkoutBtnForForm.setOnAction(e -> {
-                        // CONTROLLER: Proccesses the borrow request and updates the borrowed
-                        // book count.
-                        controller.checkoutBook(selectedBook);
-                        controller.addCountBorrowedBook();
-                        // VIEW: Closes the checkout form and shows a confirmation pop-up.
+                        // VIEW: Closes the checkout form and shows the outcome in a pop-up.
                         checkOut.close();
-                        this.createPopUpForm(primaryStage, "You have successfully borrowed the book!");
+                        // CONTROLLER: Proccesses the borrow request in the background; the
+                        // model updates the borrowed book count from the user's loans.
+                        controller.checkoutBookAsync(selectedBook, borrowed -> this.createPopUpForm(primaryStage,
+                                borrowed ? "You have successfully borrowed the book!"
+                                        : "This book could not be borrowed."
+                                                + "\nSomeone may have taken it, or you have reached your limit."));
 
                     });
                     // VIEW: Displays the checkout form with the "Borrow " button.
@@ -298,6 +417,39 @@ public class AppView {
         }
     }
 
+    // VIEW: The window behind checkOutForm, built once. checkOutForm fills
+    // in the book and what the button does.
+    private Stage createCheckOutStage() {
+        Stage checkOut = new Stage();
+        checkOut.initOwner(primaryStage);
+        checkOut.initModality(Modality.APPLICATION_MODAL);
+
+        Label heading = new Label("Book details: ");
+        heading.setFont(new Font("Arial", 20));
+        checkOutTitle = new Label();
+        checkOutAuthor = new Label();
+        checkOutGenre = new Label();
+
+        HBox nameRow = new HBox(10, new Label("Title: "), checkOutTitle);
+        HBox authorRow = new HBox(10, new Label("Author: "), checkOutAuthor);
+        HBox typeRow = new HBox(10, new Label("Type: "), checkOutGenre);
+
+        Label successLabel = new Label();
+        successLabel.setAlignment(Pos.CENTER);
+        checkOutButton = new Button();
+
+        Button cancelBtn = new Button("Cancel");
+        cancelBtn.setOnAction(e -> checkOut.close());
+
+        HBox buttonRow = new HBox(10, checkOutButton, cancelBtn);
+        buttonRow.setAlignment(Pos.CENTER);
+        VBox root = new VBox(10, heading, nameRow, authorRow, typeRow, buttonRow, successLabel);
+        root.setAlignment(Pos.CENTER);
+        Scene checkoutScene = new Scene(root, 300, 300);
+        checkOut.setScene(checkoutScene);
+        return checkOut;
+    }
+
     // Opens a form that lets the user search for book by format (print/digital)
     // and genre. Displays the filtered results in a TableView and provides options
     // to checkout a selected book or go back to the menu.
@@ -308,28 +460,21 @@ public class AppView {
     // user's
     // borrowed/downloaded book list.
     public void findBookForm() {
+        if (findBookStage == null) {
+            findBookStage = createFindBookStage();
+        }
+        // A new search starts with nothing selected.
+        findFormatToggles.selectToggle(null);
+        findGenreToggles.selectToggle(null);
+        findBookStage.show();
+    }
+
+    // VIEW: The window behind findBookForm, built once.
+    private Stage createFindBookStage() {
         Stage findBook = new Stage();
         findBook.initOwner(primaryStage);
         findBook.initModality(Modality.APPLICATION_MODAL);
 
-        Stage tableBook = new Stage();
-        tableBook.initOwner(primaryStage);
-        tableBook.initModality(Modality.APPLICATION_MODAL);
-
-        helpUserView = new TableView<>();
-        TableColumn<Book, String> col1 = new TableColumn<>("Title");
-        col1.setCellValueFactory(cell -> cell.getValue().titleProperty());
-        col1.setMinWidth(220);
-        TableColumn<Book, String> col2 = new TableColumn<>("Author");
-        col2.setCellValueFactory(cell -> cell.getValue().authorProperty());
-        TableColumn<Book, Genre> col3 = new TableColumn<>("Genre");
-        col3.setCellValueFactory(cell -> cell.getValue().genreProperty());
-        TableColumn<Book, Integer> col4 = new TableColumn<>("Page Count");
-        col4.setCellValueFactory(cell -> cell.getValue().pageCountProperty().asObject());
-        TableColumn<Book, Status> col5 = new TableColumn<>("Status");
-        col5.setCellValueFactory(cell -> cell.getValue().statusProperty());
-        helpUserView.getColumns().addAll(col1, col2, col3, col4, col5);
-
         Label findBook1 = new Label("Choose a format:");
         ToggleGroup toggleGroup1 = new ToggleGroup();
         RadioButton printBook = new RadioButton("Print Book");
@@ -353,6 +498,15 @@ public class AppView {
         poetry.setToggleGroup(toggleGroup2);
         RadioButton fantasy = new RadioButton("Fantasy");
         fantasy.setToggleGroup(toggleGroup2);
+        fiction.setUserData(Genre.FICTION);
+        nonfiction.setUserData(Genre.NON_FICTION);
+        mystery.setUserData(Genre.MYSTERY);
+        scienceFiction.setUserData(Genre.SCIENCE_FICTION);
+        romance.setUserData(Genre.ROMANCE);
+        poetry.setUserData(Genre.POETRY);
+        fantasy.setUserData(Genre.FANTASY);
+        findFormatToggles = toggleGroup1;
+        findGenreToggles = toggleGroup2;
 
         Button submitBtn = new Button("Submit");
         // Handles the user's search request after clicking "Submit."
@@ -361,72 +515,21 @@ public class AppView {
         // MODEL: Returns a filtered LibraryModel.
         // VIEW: Displays the filtered LibraryModel in a table view.
         submitBtn.setOnAction(e -> {
-            if (fiction.isSelected() && printBook.isSelected()) {
-                Library printLibrary = controller.filterPrintBook(Genre.FICTION);
-                helpUserView.setItems(printLibrary.libraryProperty());
-            } else if (nonfiction.isSelected() && printBook.isSelected()) {
-                Library printLibrary = controller.filterPrintBook(Genre.NON_FICTION);
-                helpUserView.setItems(printLibrary.libraryProperty());
-            } else if (fantasy.isSelected() && printBook.isSelected()) {
-                Library printLibrary = controller.filterPrintBook(Genre.FANTASY);
-                helpUserView.setItems(printLibrary.libraryProperty());
-            } else if (mystery.isSelected() && printBook.isSelected()) {
-                Library printLibrary = controller.filterPrintBook(Genre.MYSTERY);
-                helpUserView.setItems(printLibrary.libraryProperty());
-            } else if (scienceFiction.isSelected() && printBook.isSelected()) {
-                Library printLibrary = controller.filterPrintBook(Genre.SCIENCE_FICTION);
-                helpUserView.setItems(printLibrary.libraryProperty());
-            } else if (romance.isSelected() && printBook.isSelected()) {
-                Library printLibrary = controller.filterPrintBook(Genre.ROMANCE);
-                helpUserView.setItems(printLibrary.libraryProperty());
-            } else if (poetry.isSelected() && printBook.isSelected()) {
-                Library printLibrary = controller.filterPrintBook(Genre.POETRY);
-                helpUserView.setItems(printLibrary.libraryProperty());
-            } else if (fiction.isSelected() && digitalBook.isSelected()) {
-                Library digitalLibrary = controller.filterDigitalBook(Genre.FICTION);
-                helpUserView.setItems(digitalLibrary.libraryProperty());
-            } else if (nonfiction.isSelected() && digitalBook.isSelected()) {
-                Library digitalLibrary = controller.filterDigitalBook(Genre.NON_FICTION);
-                helpUserView.setItems(digitalLibrary.libraryProperty());
-            } else if (fantasy.isSelected() && digitalBook.isSelected()) {
-                Library digitalLibrary = controller.filterDigitalBook(Genre.FANTASY);
-                helpUserView.setItems(digitalLibrary.libraryProperty());
-            } else if (mystery.isSelected() && digitalBook.isSelected()) {
-                Library digitalLibrary = controller.filterDigitalBook(Genre.MYSTERY);
-                helpUserView.setItems(digitalLibrary.libraryProperty());
-            } else if (scienceFiction.isSelected() && digitalBook.isSelected()) {
-                Library digitalLibrary = controller.filterDigitalBook(Genre.SCIENCE_FICTION);
-                helpUserView.setItems(digitalLibrary.libraryProperty());
-            } else if (romance.isSelected() && digitalBook.isSelected()) {
-                Library digitalLibrary = controller.filterDigitalBook(Genre.ROMANCE);
-                helpUserView.setItems(digitalLibrary.libraryProperty());
-            } else if (poetry.isSelected() && digitalBook.isSelected()) {
-                Library digitalLibrary = controller.filterDigitalBook(Genre.POETRY);
-                helpUserView.setItems(digitalLibrary.libraryProperty());
+            // A group left unselected does not restrict the search.
+            BookQuery query = new BookQuery();
+            if (printBook.isSelected()) {
+                query.type(PrintBook.class);
+            } else if (digitalBook.isSelected()) {
+                query.type(DigitalBook.class);
             }
-
-            Button checkOutButton = new Button("Checkout");
-            // Begins the checkout process.
-            // VIEW: Prompts user to select a book and click "Checkout."
-            // CONTROLLER: Handles the checkout request from the view.
-            // MODEL: Updates the book's status and the user's borrowed and downloaded
-            // list.
-            checkOutButton.setOnAction(event -> {
-                Book selectedBook = helpUserView.getSelectionModel().getSelectedItem();
-                if (selectedBook != null) {
-                    this.checkOutForm(selectedBook);
-                }
-            });
-            Button backToMenu = new Button("Back");
-            backToMenu.setOnAction(event -> {
-                tableBook.close();
-            });
-            HBox optionRow = new HBox(10, backToMenu, checkOutButton);
-            optionRow.setAlignment(Pos.BOTTOM_LEFT);
-            VBox view = new VBox(5, helpUserView, optionRow);
-            view.setAlignment(Pos.CENTER);
-            Scene scene = new Scene(view, 600, 500);
-            tableBook.setScene(scene);
+            if (toggleGroup2.getSelectedToggle() != null) {
+                query.genre((Genre) toggleGroup2.getSelectedToggle().getUserData());
+            }
+            // VIEW: the table opens right away and fills in when the
+            // background query returns.
+            Stage tableBook = findResultsStage();
+            helpUserView.setItems(FXCollections.observableArrayList());
+            controller.viewAsync("find", query, results -> helpUserView.setItems(results.libraryProperty()));
             tableBook.show();
             findBook.close();
 
@@ -443,11 +546,98 @@ public class AppView {
 
         Scene scene1 = new Scene(view, 400, 300);
         findBook.setScene(scene1);
-        findBook.show();
+        return findBook;
+    }
+
+    // VIEW: The window with the results of the guided search, built once.
+    private Stage findResultsStage() {
+        if (findResultsStage != null) {
+            return findResultsStage;
+        }
+        Stage tableBook = new Stage();
+        tableBook.initOwner(primaryStage);
+        tableBook.initModality(Modality.APPLICATION_MODAL);
+
+        helpUserView = new TableView<>();
+        addBookColumns(helpUserView, true);
+
+        Button checkOutButton = new Button("Checkout");
+        // Begins the checkout process.
+        // VIEW: Prompts user to select a book and click "Checkout."
+        // CONTROLLER: Handles the checkout request from the view.
+        // MODEL: Updates the book's status and the user's borrowed and downloaded
+        // list.
+        checkOutButton.setOnAction(event -> {
+            Book selectedBook = helpUserView.getSelectionModel().getSelectedItem();
+            if (selectedBook != null) {
+                this.checkOutForm(selectedBook);
+            }
+        });
+        Button backToMenu = new Button("Back");
+        backToMenu.setOnAction(event -> {
+            tableBook.close();
+        });
+        HBox optionRow = new HBox(10, backToMenu, checkOutButton);
+        optionRow.setAlignment(Pos.BOTTOM_LEFT);
+        VBox view = new VBox(5, helpUserView, optionRow);
+        view.setAlignment(Pos.CENTER);
+        tableBook.setScene(new Scene(view, 600, 500));
+        findResultsStage = tableBook;
+        return tableBook;
+    }
+
+    // VIEW: Shows the ranked matches of a title search, best match first.
+    // CONTROLLER: Hands the selected book to the checkout form.
+    public void searchResultsForm(List<Book> results) {
+        if (searchResultsStage == null) {
+            searchResultsStage = createSearchResultsStage();
+        }
+        searchResultsView.setItems(FXCollections.observableArrayList(results));
+        searchResultsView.getSelectionModel().clearSelection();
+        searchResultsStage.show();
+    }
+
+    // VIEW: The window behind searchResultsForm, built once.
+    private Stage createSearchResultsStage() {
+        Stage resultsStage = new Stage();
+        resultsStage.initOwner(primaryStage);
+        resultsStage.initModality(Modality.APPLICATION_MODAL);
+
+        TableView<Book> resultsView = new TableView<>();
+        addBookColumns(resultsView, true);
+        searchResultsView = resultsView;
+
+        Label heading = new Label("Did you mean one of these?");
+        heading.setFont(new Font("Arial", 18));
+        Button checkOutButton = new Button("Checkout");
+        checkOutButton.setOnAction(event -> {
+            Book selectedBook = resultsView.getSelectionModel().getSelectedItem();
+            if (selectedBook != null) {
+                this.checkOutForm(selectedBook);
+            }
+        });
+        Button backToMenu = new Button("Back");
+        backToMenu.setOnAction(event -> {
+            resultsStage.close();
+        });
+        HBox optionRow = new HBox(10, backToMenu, checkOutButton);
+        optionRow.setAlignment(Pos.BOTTOM_LEFT);
+        VBox view = new VBox(5, heading, resultsView, optionRow);
+        view.setAlignment(Pos.CENTER);
+        resultsStage.setScene(new Scene(view, 600, 500));
+        return resultsStage;
     }
 
-    // VIEW: Builds the dialog box with labels, buttons, and layout.
+    // VIEW: Shows the dialog that offers the guided search.
     public void searchBook() {
+        if (notFoundStage == null) {
+            notFoundStage = createNotFoundStage();
+        }
+        notFoundStage.show();
+    }
+
+    // VIEW: Builds the dialog box with labels, buttons, and layout, once.
+    private Stage createNotFoundStage() {
         Stage helpUser = new Stage();
         helpUser.initOwner(primaryStage);
         helpUser.initModality(Modality.APPLICATION_MODAL);
@@ -475,8 +665,7 @@ public class AppView {
         view.setAlignment(Pos.CENTER);
         Scene scene = new Scene(view, 400, 200);
         helpUser.setScene(scene);
-        helpUser.show();
-
+        return helpUser;
     }
 
     // This method creates a JavaFX Scene that allows the user to search for books
@@ -489,25 +678,64 @@ public class AppView {
     // MODEL: Stores and manages the book data. It returns a book related to the
     // search query.
     public Scene createSceneOpt2() {
+        // VIEW: Back on this screen the search starts empty again.
+        if (sceneOpt2 != null) {
+            searchField.clear();
+            return sceneOpt2;
+        }
         Label heading = new Label("Searching for books");
         heading.setFont(new Font("Arial", 20));
         TextField inputField = new TextField();
+        searchField = inputField;
         inputField.setPromptText("Enter book title: ");
         inputField.setMaxWidth(300);
         Button searchBtn = new Button("Search");
         Label message = new Label();
         Label helpUser = new Label();
 
+        // VIEW: Suggestions follow the text while it is typed. Every
+        // keystroke asks the controller again; only the answer for the
+        // newest text reaches the table.
+        ObservableList<Book> suggestions = FXCollections.observableArrayList();
+        TableView<Book> suggestionView = new TableView<>(suggestions);
+        addBookColumns(suggestionView, true);
+        suggestionView.setPlaceholder(new Label("Start typing a title or author"));
+        inputField.textProperty().addListener((obs, oldText, newText) -> {
+            if (newText.isBlank()) {
+                controller.cancelSuggest();
+                suggestions.clear();
+            } else {
+                controller.suggestAsync(newText, SUGGESTIONS, results -> suggestions.setAll(results));
+            }
+        });
+        // VIEW: Double-clicking a suggestion opens its checkout form.
+        suggestionView.setOnMouseClicked(e -> {
+            Book selectedBook = suggestionView.getSelectionModel().getSelectedItem();
+            if (e.getClickCount() == 2 && selectedBook != null) {
+                checkOutForm(selectedBook);
+            }
+        });
+
         searchBtn.setOnAction(e -> {
             String bookTitle = inputField.getText().toLowerCase().trim();
-            Book foundedBook = controller.getBook(bookTitle);
-
-            if (foundedBook == null) {
-                searchBook();
-            } else {
-                checkOutForm(foundedBook);
+            // CONTROLLER: looks the title up off the JavaFX thread and calls
+            // back on it, so the form stays responsive.
+            controller.getBookAsync(bookTitle, foundedBook -> {
+                if (foundedBook == null) {
+                    // No exact title: fall back to a ranked word search over
+                    // titles and authors before offering the guided search.
+                    controller.searchAsync(bookTitle, 50, results -> {
+                        if (results.isEmpty()) {
+                            searchBook();
+                        } else {
+                            searchResultsForm(results);
+                        }
+                    });
+                } else {
+                    checkOutForm(foundedBook);
 
-            }
+                }
+            });
         });
         Button backBtn = new Button("Back to Menu");
         backBtn.setOnAction(e -> {
@@ -517,10 +745,10 @@ public class AppView {
         HBox buttonRow = new HBox(10, searchBtn, backBtn);
         buttonRow.setAlignment(Pos.CENTER);
 
-        VBox viewOpt2 = new VBox(20, heading, inputField, buttonRow, message, helpUser);
+        VBox viewOpt2 = new VBox(20, heading, inputField, suggestionView, buttonRow, message, helpUser);
         viewOpt2.setAlignment(Pos.CENTER);
-        Scene scene2 = new Scene(viewOpt2, 500, 500);
-        return scene2;
+        sceneOpt2 = new Scene(viewOpt2, 800, 500);
+        return sceneOpt2;
     }
 
     public void updateControllerFromListeners() {
@@ -528,7 +756,14 @@ public class AppView {
     }
 
     public void observeModelAndUpdateControls() {
-
+        // This listeners fires when the user's book count is updated.
+        // It read whether the new value reaches a certain threshold
+        // and calls the controller to update the overMaximumProperty.
+        // VIEW: Observes changes to the user's borrowed book count and reacts to
+        // updates.
+        // CONTROLLER: Updates the overMaximumProperty if the threshold is reached.
+        // MODEL: Stores and maanges the user's borrowed book count.
+        model.countBorrowedBookProperty().addListener(overMaximumListener);
     }
 
     // This method creates a scene that displays lists of books the user has
@@ -539,35 +774,22 @@ public class AppView {
     // some commands to prevent users returning the digital books.
     // VIEW: User's book display with return functionality
     public Scene createSceneOpt3() {
+        if (sceneOpt3 != null) {
+            borrowedBookView.getSelectionModel().clearSelection();
+            downloadedBookView.getSelectionModel().clearSelection();
+            return sceneOpt3;
+        }
         Label headingBorrowed = new Label("List of your borrowed books: ");
         headingBorrowed.setFont(new Font("Arial", 20));
         borrowedBookView = new TableView<>();
-
-        TableColumn<Book, String> col1 = new TableColumn<>("Title");
-        col1.setCellValueFactory(cell -> cell.getValue().titleProperty());
-        col1.setMinWidth(220);
-        TableColumn<Book, String> col2 = new TableColumn<>("Author");
-        col2.setCellValueFactory(cell -> cell.getValue().authorProperty());
-        TableColumn<Book, Genre> col3 = new TableColumn<>("Genre");
-        col3.setCellValueFactory(cell -> cell.getValue().genreProperty());
-        TableColumn<Book, Integer> col4 = new TableColumn<>("Page Count");
-        col4.setCellValueFactory(cell -> cell.getValue().pageCountProperty().asObject());
-        borrowedBookView.getColumns().addAll(col1, col2, col3, col4);
+        addBookColumns(borrowedBookView, false);
         borrowedBookView.setItems(controller.getBorrowedBooks());
+        borrowedBookView.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
 
         Label headingDownloaded = new Label("List of your downloaded books: ");
         headingDownloaded.setFont(new Font("Arial", 20));
         downloadedBookView = new TableView<>();
-        TableColumn<Book, String> col5 = new TableColumn<>("Title");
-        col5.setCellValueFactory(cell -> cell.getValue().titleProperty());
-        col5.setMinWidth(220);
-        TableColumn<Book, String> col6 = new TableColumn<>("Author");
-        col6.setCellValueFactory(cell -> cell.getValue().authorProperty());
-        TableColumn<Book, Genre> col7 = new TableColumn<>("Genre");
-        col7.setCellValueFactory(cell -> cell.getValue().genreProperty());
-        TableColumn<Book, Integer> col8 = new TableColumn<>("Page Count");
-        col8.setCellValueFactory(cell -> cell.getValue().pageCountProperty().asObject());
-        downloadedBookView.getColumns().addAll(col5, col6, col7, col8);
+        addBookColumns(downloadedBookView, false);
         downloadedBookView.setItems(controller.getDownloadedBooks());
 
         Button backButton = new Button("Back to Menu");
@@ -583,12 +805,26 @@ public class AppView {
         // model, and triggers an update in the view.
         // MODEL: Updates the books availability and the users book list.
         returnBtn.setOnAction(e -> {
+            List<Book> selectedBooks = new ArrayList<>(borrowedBookView.getSelectionModel().getSelectedItems());
+            if (selectedBooks.size() > 1) {
+                // CONTROLLER: returns them together, with one list and counter update.
+                controller.returnBooksAsync(selectedBooks, returned -> {
+                    if (returned < selectedBooks.size()) {
+                        this.createPopUpForm(primaryStage,
+                                (selectedBooks.size() - returned) + " of these books could not be returned.");
+                    }
+                });
+                return;
+            }
             Book selectedBook = borrowedBookView.getSelectionModel().getSelectedItem();
             if (!(selectedBook instanceof PrintBook) || selectedBook == null) {
                 this.createPopUpForm(primaryStage, "Please select a borrowed book to return.");
             } else {
-                controller.returnBook(selectedBook);
-                controller.subtractCountBorrowedBook();
+                controller.returnBookAsync(selectedBook, returned -> {
+                    if (!returned) {
+                        this.createPopUpForm(primaryStage, "This book could not be returned.");
+                    }
+                });
             }
         });
 
@@ -596,22 +832,32 @@ public class AppView {
 
         VBox root = new VBox(10, headingBorrowed, borrowedBookView, headingDownloaded, downloadedBookView, buttonRow);
         root.setAlignment(Pos.CENTER);
-        Scene userBookScene = new Scene(root, 500, 500);
-        return userBookScene;
+        sceneOpt3 = new Scene(root, 500, 500);
+        return sceneOpt3;
     }
 
     // Displays a pop-up notification with a custom message to the user.
+    // The pop-up window is built once per owner; a new message replaces the
+    // one still showing.
     public void createPopUpForm(Stage ownerStage, String message) {
+        if (popUpStage == null || popUpStage.getOwner() != ownerStage) {
+            popUpStage = createPopUpStage(ownerStage);
+        }
+        popUpMessage.setText(message);
+        popUpStage.show();
+    }
+
+    private Stage createPopUpStage(Stage ownerStage) {
         Stage form = new Stage();
         form.initOwner(ownerStage);
         form.initModality(Modality.APPLICATION_MODAL);
-        Label messageLabel = new Label(message);
+        popUpMessage = new Label();
         Button cancelBtn = new Button("Close");
         cancelBtn.setOnAction(e -> form.close());
-        VBox root = new VBox(20, messageLabel, cancelBtn);
+        VBox root = new VBox(20, popUpMessage, cancelBtn);
         root.setAlignment(Pos.CENTER);
         Scene formScene = new Scene(root, 300, 100);
         form.setScene(formScene);
-        form.show();
+        return form;
     }
 }
\ No newline at end of file
@@ -0,0 +1,64 @@
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// MODEL: Gives every distinct author of a library a small int id, in order
+// of first appearance. The indexes file books under the id, so an author
+// filter costs one map lookup per query instead of a string compare per
+// book, and each author's name and sort key are kept once, however many
+// books share them. Ids are never reused, like index rows.
+// Changed under the library's write lock, read under its read lock.
+class AuthorDictionary {
+    private final Map<String, Integer> ids;
+    private final List<String> names;
+    private final List<CollationKey> keys;
+    private final Collator collator;
+
+    public AuthorDictionary() {
+        this.ids = new HashMap<>();
+        this.names = new ArrayList<>();
+        this.keys = new ArrayList<>();
+        this.collator = SortIndex.newCollator();
+    }
+
+    // Returns the id of the author, adding it if it is new.
+    public int id(String author) {
+        Integer id = ids.get(author);
+        if (id == null) {
+            id = names.size();
+            ids.put(author, id);
+            names.add(author);
+            keys.add(null);
+        }
+        return id;
+    }
+
+    // Returns the id of the author, or -1 if no book has it.
+    public int find(String author) {
+        Integer id = ids.get(author);
+        return id == null ? -1 : id;
+    }
+
+    public String name(int id) {
+        return names.get(id);
+    }
+
+    // MODEL: Sort key of the author, shared by all of its books. Built on
+    // first use, since only the author order needs it.
+    public CollationKey key(int id) {
+        CollationKey key = keys.get(id);
+        if (key == null) {
+            String name = names.get(id);
+            key = collator.getCollationKey(name == null ? "" : name);
+            keys.set(id, key);
+        }
+        return key;
+    }
+
+    public int size() {
+        return names.size();
+    }
+}
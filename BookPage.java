@@ -0,0 +1,53 @@
+import java.util.List;
+
+// MODEL: One page of a query result in a fixed order, see Library.page.
+// The cursor marks the last book of the page by its sort key and index row,
+// so the next page starts right after it even if books were added or
+// removed in between. A cursor only works with the library that made it.
+class BookPage {
+    // Position after which the next page starts.
+    static class Cursor {
+        private final BookOrder order;
+        private final Object key;
+        private final int row;
+
+        Cursor(BookOrder order, Object key, int row) {
+            this.order = order;
+            this.key = key;
+            this.row = row;
+        }
+
+        public BookOrder getOrder() {
+            return order;
+        }
+
+        Object getKey() {
+            return key;
+        }
+
+        int getRow() {
+            return row;
+        }
+    }
+
+    private final List<Book> books;
+    private final Cursor next;
+
+    BookPage(List<Book> books, Cursor next) {
+        this.books = books;
+        this.next = next;
+    }
+
+    public List<Book> getBooks() {
+        return books;
+    }
+
+    // Cursor for the following page, or null if this is the last one.
+    public Cursor getNext() {
+        return next;
+    }
+
+    public boolean hasNext() {
+        return next != null;
+    }
+}
@@ -0,0 +1,225 @@
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+
+// MODEL: One query object for any combination of book attributes.
+// Unset fields do not restrict the result. Build it with the chained
+// setters, e.g. new BookQuery().type(PrintBook.class).genre(Genre.FANTASY).
+class BookQuery {
+    // Smallest candidate set that is scanned instead of walked.
+    static final int SCAN_ROWS = 1 << 16;
+
+    private Class<? extends Book> type;
+    private Genre genre;
+    private String author;
+    private Status status;
+    private Format format;
+    private CoverType coverType;
+    private int minPages = 0;
+    private int maxPages = Integer.MAX_VALUE;
+
+    public BookQuery type(Class<? extends Book> type) {
+        this.type = type;
+        return this;
+    }
+
+    public BookQuery genre(Genre genre) {
+        this.genre = genre;
+        return this;
+    }
+
+    public BookQuery author(String author) {
+        this.author = author;
+        return this;
+    }
+
+    public BookQuery status(Status status) {
+        this.status = status;
+        return this;
+    }
+
+    public BookQuery format(Format format) {
+        this.format = format;
+        return this;
+    }
+
+    public BookQuery coverType(CoverType coverType) {
+        this.coverType = coverType;
+        return this;
+    }
+
+    // Inclusive page range.
+    public BookQuery pages(int minPages, int maxPages) {
+        this.minPages = minPages;
+        this.maxPages = maxPages;
+        return this;
+    }
+
+    public Class<? extends Book> getType() {
+        return type;
+    }
+
+    public Genre getGenre() {
+        return genre;
+    }
+
+    public String getAuthor() {
+        return author;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public CoverType getCoverType() {
+        return coverType;
+    }
+
+    public int getMinPages() {
+        return minPages;
+    }
+
+    public int getMaxPages() {
+        return maxPages;
+    }
+
+    private boolean hasPageRange() {
+        return minPages > 0 || maxPages < Integer.MAX_VALUE;
+    }
+
+    // MODEL: Checks a single book against every field, used when there is no index.
+    public boolean matches(Book book) {
+        if (type != null && !type.isInstance(book)) {
+            return false;
+        }
+        if (genre != null && book.getGenre() != genre) {
+            return false;
+        }
+        if (author != null && !author.equals(book.getAuthor())) {
+            return false;
+        }
+        if (status != null && book.getStatus() != status) {
+            return false;
+        }
+        if (format != null && !(book instanceof DigitalBook && ((DigitalBook) book).getFormat() == format)) {
+            return false;
+        }
+        if (coverType != null
+                && !(book instanceof PrintBook && ((PrintBook) book).getCoverType() == coverType)) {
+            return false;
+        }
+        int pages = book.getPageCount();
+        return pages >= minPages && pages <= maxPages;
+    }
+
+    // MODEL: Query planner.
+    // Collects the index bitset of every restricted field, walks the smallest
+    // one and probes the others row by row, so the cost follows the most
+    // selective field instead of the catalog size. The page range has no
+    // index and is checked on the surviving books only.
+    // When even the smallest bitset holds SCAN_ROWS rows or more, walking it
+    // costs more than scanning the columns of every row in parallel, so the
+    // whole query is answered by CatalogColumns.scan instead.
+    public BitSet select(CatalogIndex index) {
+        List<BitSet> postings = postings(index);
+        BitSet driver = postings.get(0);
+        if (driver.cardinality() >= SCAN_ROWS
+                && (type == null || type == PrintBook.class || type == DigitalBook.class)) {
+            int authorId = author == null ? -1 : index.authors().find(author);
+            return index.columns().scan(this, authorId);
+        }
+        BitSet result = new BitSet();
+        int checked = 0;
+        for (int row = driver.nextSetBit(0); row >= 0; row = driver.nextSetBit(row + 1)) {
+            // Lets a superseded background query stop early.
+            if ((++checked & 0xFFF) == 0 && Thread.currentThread().isInterrupted()) {
+                throw new CancellationException("Query cancelled: " + this);
+            }
+            if (accepts(index, postings, row)) {
+                result.set(row);
+            }
+        }
+        return result;
+    }
+
+    // MODEL: The index bitset of every restricted field, most selective first
+    // (all rows if nothing is restricted). The first one bounds the result.
+    public List<BitSet> postings(CatalogIndex index) {
+        List<BitSet> postings = new ArrayList<>();
+        if (type != null) {
+            if (type == DigitalBook.class) {
+                postings.add(index.digital());
+            } else if (type == PrintBook.class) {
+                postings.add(index.print());
+            }
+        }
+        if (genre != null) {
+            postings.add(index.genre(genre));
+        }
+        if (author != null) {
+            postings.add(index.author(author));
+        }
+        if (status != null) {
+            postings.add(index.status(status));
+        }
+        if (format != null) {
+            postings.add(index.format(format));
+        }
+        if (coverType != null) {
+            postings.add(index.coverType(coverType));
+        }
+        if (postings.isEmpty()) {
+            postings.add(index.all());
+        }
+        postings.sort(Comparator.comparingInt(BitSet::cardinality));
+        return postings;
+    }
+
+    // MODEL: Checks one row against the postings and, if needed, the fields
+    // that have no index. Lets callers test rows in any order they like.
+    public boolean accepts(CatalogIndex index, List<BitSet> postings, int row) {
+        for (int i = 0; i < postings.size(); i++) {
+            if (!postings.get(i).get(row)) {
+                return false;
+            }
+        }
+        boolean residual = hasPageRange()
+                || (type != null && type != DigitalBook.class && type != PrintBook.class);
+        return !residual || matches(index.bookAt(row));
+    }
+
+    // Queries with the same fields are equal, so they can key a cache.
+    // A query must not be changed once it is used as a key.
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof BookQuery)) {
+            return false;
+        }
+        BookQuery that = (BookQuery) other;
+        return type == that.type && genre == that.genre && Objects.equals(author, that.author)
+                && status == that.status && format == that.format && coverType == that.coverType
+                && minPages == that.minPages && maxPages == that.maxPages;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, genre, author, status, format, coverType, minPages, maxPages);
+    }
+
+    @Override
+    public String toString() {
+        return "BookQuery[type=" + (type == null ? null : type.getSimpleName()) + ", genre=" + genre
+                + ", author=" + author + ", status=" + status + ", format=" + format
+                + ", coverType=" + coverType + ", pages=" + minPages + ".." + maxPages + "]";
+    }
+}
@@ -0,0 +1,327 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// MODEL: Column store that holds the attribute values of many books.
+// Each book is a row: titles sit in one array, authors are dictionary encoded
+// to int ids, genre/status/type/format-or-cover are one byte each and page
+// counts share one int[]. A Book object is only a handle (store + row); its
+// JavaFX properties are created when a TableView first asks for them, and
+// edits made through them are written back to the row.
+// Books built with the property constructors (e.g. Booklist) have no row;
+// they keep their values in the properties they were given.
+// MappedBookStore overrides the read methods to decode rows from a file.
+// Statuses change after a row is written (checkout, return), so they live in
+// fixed-size chunks that are never copied and are updated with compare-and-set.
+class BookStore {
+    static final byte DIGITAL = 0;
+    static final byte PRINT = 1;
+    // Marks a missing enum value in the byte columns.
+    static final byte NONE = -1;
+
+    // Rows per status chunk.
+    static final int CHUNK_BITS = 12;
+    static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    static final VarHandle BYTES = MethodHandles.arrayElementVarHandle(byte[].class);
+
+    static final Genre[] GENRES = Genre.values();
+    static final Status[] STATUSES = Status.values();
+    static final Format[] FORMATS = Format.values();
+    static final CoverType[] COVER_TYPES = CoverType.values();
+
+    // Shallow size of a book handle with compressed oops (JDK 21, 64-bit):
+    // header, store, row, five property slots and the detached-values slot,
+    // padded to 8 bytes. A book built from properties (see Booklist) was
+    // measured at about 460 bytes: the handle, five properties with their
+    // listeners and its detached values.
+    static final int HANDLE_BYTES = 48;
+    static final int PROPERTY_BOOK_BYTES = 460;
+
+    // MODEL: The column arrays, replaced as a whole when they grow. Readers
+    // (the JavaFX thread, queries) take columns once and never see an array
+    // swapped under them while an importer appends. Writers hold the store's
+    // lock and write columns again when done, so a reader that gets a book
+    // after its row was written also sees the row.
+    private static final class Columns {
+        final String[] titles;
+        final int[] authors;
+        final byte[] genres;
+        final byte[] kinds;
+        // Format ordinal for digital books, cover type ordinal for print books.
+        final byte[] details;
+        final int[] pageCounts;
+        // Author dictionary: each distinct author string is stored once.
+        final String[] authorNames;
+
+        Columns(String[] titles, int[] authors, byte[] genres, byte[] kinds, byte[] details, int[] pageCounts,
+                String[] authorNames) {
+            this.titles = titles;
+            this.authors = authors;
+            this.genres = genres;
+            this.kinds = kinds;
+            this.details = details;
+            this.pageCounts = pageCounts;
+            this.authorNames = authorNames;
+        }
+
+        Columns grow(int capacity) {
+            return new Columns(Arrays.copyOf(titles, capacity), Arrays.copyOf(authors, capacity),
+                    Arrays.copyOf(genres, capacity), Arrays.copyOf(kinds, capacity),
+                    Arrays.copyOf(details, capacity), Arrays.copyOf(pageCounts, capacity), authorNames);
+        }
+
+        Columns growAuthors(int capacity) {
+            return new Columns(titles, authors, genres, kinds, details, pageCounts,
+                    Arrays.copyOf(authorNames, capacity));
+        }
+    }
+
+    private volatile int size;
+    private volatile Columns columns;
+    private volatile byte[][] statuses;
+    // Written under the lock only.
+    private final Map<String, Integer> authorIds;
+
+    // Libraries that follow status changes and edits of books in this store.
+    private final BookListeners listeners;
+
+    public BookStore(int capacity) {
+        capacity = Math.max(capacity, 16);
+        this.columns = new Columns(new String[capacity], new int[capacity], new byte[capacity], new byte[capacity],
+                new byte[capacity], new int[capacity], new String[16]);
+        this.statuses = new byte[(capacity + CHUNK_SIZE - 1) >> CHUNK_BITS][];
+        this.authorIds = new HashMap<>();
+        this.listeners = new BookListeners();
+    }
+
+    // MODEL: Creates a compact digital book without any JavaFX properties.
+    public DigitalBook addDigitalBook(String title, String author, Genre genre, int pageCount, Format format,
+            Status status) {
+        int row = append(title, author, genre, pageCount, status, DIGITAL, ordinal(format));
+        return new DigitalBook(this, row);
+    }
+
+    // MODEL: Creates a compact print book without any JavaFX properties.
+    public PrintBook addPrintBook(String title, String author, Genre genre, int pageCount, CoverType coverType,
+            Status status) {
+        int row = append(title, author, genre, pageCount, status, PRINT, ordinal(coverType));
+        return new PrintBook(this, row);
+    }
+
+    synchronized int append(String title, String author, Genre genre, int pageCount, Status status, byte kind,
+            byte detail) {
+        int row = size;
+        if (row == columns.titles.length) {
+            columns = columns.grow(row * 2);
+        }
+        int authorId = authorId(author);
+        Columns c = columns;
+        c.titles[row] = title;
+        c.authors[row] = authorId;
+        c.genres[row] = ordinal(genre);
+        statusChunk(row)[row & (CHUNK_SIZE - 1)] = ordinal(status);
+        c.kinds[row] = kind;
+        c.details[row] = detail;
+        c.pageCounts[row] = pageCount;
+        // Publishes the row.
+        columns = c;
+        size = row + 1;
+        return row;
+    }
+
+    // Called under the append lock. Existing chunks are shared with the
+    // old outer array, so a concurrent status update is never lost.
+    private byte[] statusChunk(int row) {
+        int chunk = row >> CHUNK_BITS;
+        byte[][] chunks = statuses;
+        if (chunk >= chunks.length) {
+            chunks = Arrays.copyOf(chunks, Math.max(chunk + 1, chunks.length * 2));
+            statuses = chunks;
+        }
+        if (chunks[chunk] == null) {
+            chunks[chunk] = new byte[CHUNK_SIZE];
+        }
+        return chunks[chunk];
+    }
+
+    // Called under the lock.
+    private int authorId(String author) {
+        Integer id = authorIds.get(author);
+        if (id == null) {
+            id = authorIds.size();
+            if (id == columns.authorNames.length) {
+                columns = columns.growAuthors(id * 2);
+            }
+            columns.authorNames[id] = author;
+            authorIds.put(author, id);
+        }
+        return id;
+    }
+
+    static byte ordinal(Enum<?> value) {
+        return value == null ? NONE : (byte) value.ordinal();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String title(int row) {
+        return columns.titles[row];
+    }
+
+    public String author(int row) {
+        Columns c = columns;
+        return c.authorNames[c.authors[row]];
+    }
+
+    public int authorId(int row) {
+        return columns.authors[row];
+    }
+
+    public Genre genre(int row) {
+        byte value = columns.genres[row];
+        return value == NONE ? null : GENRES[value];
+    }
+
+    public Status status(int row) {
+        byte value = (byte) BYTES.getVolatile(statuses[row >> CHUNK_BITS], row & (CHUNK_SIZE - 1));
+        return value == NONE ? null : STATUSES[value];
+    }
+
+    public byte kind(int row) {
+        return columns.kinds[row];
+    }
+
+    public Format format(int row) {
+        Columns c = columns;
+        byte value = c.details[row];
+        return c.kinds[row] != DIGITAL || value == NONE ? null : FORMATS[value];
+    }
+
+    public CoverType coverType(int row) {
+        Columns c = columns;
+        byte value = c.details[row];
+        return c.kinds[row] != PRINT || value == NONE ? null : COVER_TYPES[value];
+    }
+
+    public int pageCount(int row) {
+        return columns.pageCounts[row];
+    }
+
+    // Sets the status only if it still is expect; false if another thread won.
+    protected boolean compareAndSetStatus(int row, Status expect, Status update) {
+        return BYTES.compareAndSet(statuses[row >> CHUNK_BITS], row & (CHUNK_SIZE - 1), ordinal(expect),
+                ordinal(update));
+    }
+
+    // MODEL: Edits made through a book's properties. The caller then
+    // reports the edit with edited, so the libraries index the book again.
+    synchronized void setTitle(int row, String title) {
+        Columns c = columns;
+        c.titles[row] = title;
+        columns = c;
+    }
+
+    synchronized void setAuthor(int row, String author) {
+        int authorId = authorId(author);
+        Columns c = columns;
+        c.authors[row] = authorId;
+        columns = c;
+    }
+
+    synchronized void setGenre(int row, Genre genre) {
+        Columns c = columns;
+        c.genres[row] = ordinal(genre);
+        columns = c;
+    }
+
+    synchronized void setPageCount(int row, int pageCount) {
+        Columns c = columns;
+        c.pageCounts[row] = pageCount;
+        columns = c;
+    }
+
+    void edited(Book book, String oldTitle) {
+        listeners.bookEdited(book, oldTitle);
+    }
+
+    // MODEL: Records a new status for the book's row and notifies the
+    // libraries that follow this store. Does nothing if it is unchanged.
+    // Lock-free, so checkouts of different books never wait on each other.
+    void setStatus(Book book, Status status) {
+        Status oldStatus;
+        do {
+            oldStatus = status(book.row);
+            if (oldStatus == status) {
+                return;
+            }
+        } while (!compareAndSetStatus(book.row, oldStatus, status));
+        listeners.statusChanged(book, oldStatus, status);
+    }
+
+    public void addStatusListener(StatusListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeStatusListener(StatusListener listener) {
+        listeners.remove(listener);
+    }
+
+    // Bytes used by the columns for one row, not counting the title string.
+    public static int columnBytesPerRow() {
+        // title ref + author id + page count + four byte columns
+        // (status chunks add nothing per row)
+        return 4 + 4 + 4 + 4;
+    }
+
+    // MODEL: Column bytes, growth slack included, plus one handle per row,
+    // against what the same books take when built from properties. Title
+    // and author strings are not counted; both kinds of book share them.
+    public synchronized String memoryReport() {
+        long columns = (long) this.columns.titles.length * columnBytesPerRow();
+        long perBook = size == 0 ? 0 : HANDLE_BYTES + columns / size;
+        return "BookStore: " + size + " rows, " + authorIds.size() + " distinct authors, "
+                + columns / 1024 + " KiB of columns (" + columnBytesPerRow() + " bytes per row), about "
+                + perBook + " bytes per book against " + PROPERTY_BOOK_BYTES + " built from properties";
+    }
+}
+
+// MODEL: Libraries that follow a set of books, all the books of a BookStore
+// or one book built from properties. Held weakly so a Library that is no
+// longer used (for example a filter result) is not kept alive by its books.
+class BookListeners {
+    private final List<WeakReference<StatusListener>> listeners = new CopyOnWriteArrayList<>();
+
+    void add(StatusListener listener) {
+        listeners.removeIf(ref -> ref.get() == null);
+        listeners.add(new WeakReference<>(listener));
+    }
+
+    void remove(StatusListener listener) {
+        listeners.removeIf(ref -> ref.get() == null || ref.get() == listener);
+    }
+
+    void statusChanged(Book book, Status oldStatus, Status newStatus) {
+        for (WeakReference<StatusListener> ref : listeners) {
+            StatusListener listener = ref.get();
+            if (listener != null) {
+                listener.statusChanged(book, oldStatus, newStatus);
+            }
+        }
+    }
+
+    void bookEdited(Book book, String oldTitle) {
+        for (WeakReference<StatusListener> ref : listeners) {
+            StatusListener listener = ref.get();
+            if (listener != null) {
+                listener.bookEdited(book, oldTitle);
+            }
+        }
+    }
+}
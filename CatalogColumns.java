@@ -0,0 +1,225 @@
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.RecursiveAction;
+
+// MODEL: The filterable attributes of every CatalogIndex row, one primitive
+// array per attribute (encoded like BookStore: kind, genre, status and
+// format-or-cover are bytes, NONE for a missing value, author is the
+// AuthorDictionary id). A query over these arrays never touches a Book, so
+// predicates without an index (page ranges) or queries that keep most of
+// the catalog are answered by a scan that splits the rows over the common
+// fork/join pool and produces a bitset of rows, like the indexes do.
+// Removed rows get kind NONE and never match.
+class CatalogColumns {
+    // Rows per leaf of the scan, a multiple of 64 so leaves own whole
+    // words of the result and never write the same word.
+    static final int LEAF_ROWS = 1 << 14;
+
+    private int rows;
+    private byte[] kinds;
+    private byte[] genres;
+    private byte[] statuses;
+    // Format ordinal for digital books, cover type ordinal for print books.
+    private byte[] details;
+    private int[] pageCounts;
+    private int[] authors;
+
+    public CatalogColumns() {
+        this.kinds = new byte[64];
+        this.genres = new byte[64];
+        this.statuses = new byte[64];
+        this.details = new byte[64];
+        this.pageCounts = new int[64];
+        this.authors = new int[64];
+    }
+
+    // MODEL: Writes the attributes of the book at row; rows are added in order.
+    public void set(int row, Book book, int author) {
+        if (row >= kinds.length) {
+            int capacity = Math.max(row + 1, kinds.length * 2);
+            kinds = Arrays.copyOf(kinds, capacity);
+            genres = Arrays.copyOf(genres, capacity);
+            statuses = Arrays.copyOf(statuses, capacity);
+            details = Arrays.copyOf(details, capacity);
+            pageCounts = Arrays.copyOf(pageCounts, capacity);
+            authors = Arrays.copyOf(authors, capacity);
+        }
+        if (book instanceof DigitalBook) {
+            kinds[row] = BookStore.DIGITAL;
+            details[row] = ordinal(((DigitalBook) book).getFormat());
+        } else {
+            kinds[row] = BookStore.PRINT;
+            details[row] = ordinal(((PrintBook) book).getCoverType());
+        }
+        genres[row] = ordinal(book.getGenre());
+        statuses[row] = ordinal(book.getStatus());
+        pageCounts[row] = book.getPageCount();
+        authors[row] = author;
+        rows = Math.max(rows, row + 1);
+    }
+
+    public void remove(int row) {
+        kinds[row] = BookStore.NONE;
+    }
+
+    public void setStatus(int row, Status status) {
+        statuses[row] = ordinal(status);
+    }
+
+    public int author(int row) {
+        return authors[row];
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    private static byte ordinal(Enum<?> value) {
+        return value == null ? BookStore.NONE : (byte) value.ordinal();
+    }
+
+    // MODEL: Rows that match every field of the query. The type must be
+    // PrintBook, DigitalBook or unset, and author is the query author's id
+    // (-1 when the query has none). The calling thread may be interrupted
+    // to cancel the scan, which then throws CancellationException.
+    public BitSet scan(BookQuery query, int author) {
+        long[] words = new long[(rows + 63) >>> 6];
+        new Scan(this, query, author, Thread.currentThread(), words, 0, rows).invoke();
+        return BitSet.valueOf(words);
+    }
+
+    // One range of rows; splits in halves until it is at most LEAF_ROWS.
+    // Never serialized; RecursiveAction is only Serializable by inheritance.
+    @SuppressWarnings("serial")
+    private static class Scan extends RecursiveAction {
+        private final CatalogColumns columns;
+        private final Thread caller;
+        private final long[] words;
+        private final int from;
+        private final int to;
+        // The query, encoded like the columns (NONE = any, author -1 = any).
+        private final byte kind;
+        private final byte genre;
+        private final byte status;
+        private final byte detail;
+        private final byte detailKind;
+        private final int author;
+        private final int minPages;
+        private final int maxPages;
+
+        Scan(CatalogColumns columns, BookQuery query, int author, Thread caller, long[] words, int from, int to) {
+            this.columns = columns;
+            this.caller = caller;
+            this.words = words;
+            this.from = from;
+            this.to = to;
+            this.kind = query.getType() == PrintBook.class ? BookStore.PRINT
+                    : query.getType() == DigitalBook.class ? BookStore.DIGITAL : BookStore.NONE;
+            this.genre = ordinal(query.getGenre());
+            this.status = ordinal(query.getStatus());
+            if (query.getFormat() != null) {
+                this.detail = ordinal(query.getFormat());
+                this.detailKind = BookStore.DIGITAL;
+            } else {
+                this.detail = ordinal(query.getCoverType());
+                this.detailKind = BookStore.PRINT;
+            }
+            this.author = author;
+            this.minPages = query.getMinPages();
+            this.maxPages = query.getMaxPages();
+        }
+
+        private Scan(Scan parent, int from, int to) {
+            this.columns = parent.columns;
+            this.caller = parent.caller;
+            this.words = parent.words;
+            this.from = from;
+            this.to = to;
+            this.kind = parent.kind;
+            this.genre = parent.genre;
+            this.status = parent.status;
+            this.detail = parent.detail;
+            this.detailKind = parent.detailKind;
+            this.author = parent.author;
+            this.minPages = parent.minPages;
+            this.maxPages = parent.maxPages;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > LEAF_ROWS) {
+                int middle = from + ((to - from) / 2 & -LEAF_ROWS);
+                if (middle == from) {
+                    middle += LEAF_ROWS;
+                }
+                invokeAll(new Scan(this, from, middle), new Scan(this, middle, to));
+                return;
+            }
+            // Lets a superseded background query stop early.
+            if (caller.isInterrupted()) {
+                throw new CancellationException("Scan cancelled");
+            }
+            // Column at a time: each restricted column turns 64 rows into a
+            // word of bits with a short loop that has no branches, and the
+            // words are and-ed. Unrestricted columns are not read at all.
+            for (int base = from; base < to; base += 64) {
+                int end = Math.min(base + 64, to);
+                long bits = kind == BookStore.NONE ? ~equal(columns.kinds, base, end, BookStore.NONE)
+                        : equal(columns.kinds, base, end, kind);
+                if (genre != BookStore.NONE && bits != 0) {
+                    bits &= equal(columns.genres, base, end, genre);
+                }
+                if (status != BookStore.NONE && bits != 0) {
+                    bits &= equal(columns.statuses, base, end, status);
+                }
+                if (detail != BookStore.NONE && bits != 0) {
+                    bits &= equal(columns.kinds, base, end, detailKind) & equal(columns.details, base, end, detail);
+                }
+                if (author >= 0 && bits != 0) {
+                    bits &= equal(columns.authors, base, end, author);
+                }
+                if ((minPages > 0 || maxPages < Integer.MAX_VALUE) && bits != 0) {
+                    bits &= between(columns.pageCounts, base, end, minPages, maxPages);
+                }
+                // Rows past the end of the last word never match.
+                words[base >>> 6] = bits & (-1L >>> (64 - (end - base)));
+            }
+        }
+
+        // Bit i is set when values[base + i] == value.
+        private static long equal(byte[] values, int base, int end, byte value) {
+            long bits = 0;
+            for (int row = base; row < end; row++) {
+                bits |= zero((values[row] ^ value) & 0xFF) << (row - base);
+            }
+            return bits;
+        }
+
+        private static long equal(int[] values, int base, int end, int value) {
+            long bits = 0;
+            for (int row = base; row < end; row++) {
+                bits |= zero(values[row] ^ value) << (row - base);
+            }
+            return bits;
+        }
+
+        // 1 if x is 0, otherwise 0, without a branch.
+        private static long zero(long x) {
+            return ((x - 1) & ~x) >>> 63;
+        }
+
+        // Bit i is set when min <= values[base + i] <= max.
+        private static long between(int[] values, int base, int end, int min, int max) {
+            long span = (long) max - min;
+            long bits = 0;
+            for (int row = base; row < end; row++) {
+                long offset = (long) values[row] - min;
+                // 1 when neither difference is negative.
+                long inside = ~(offset | (span - offset)) >>> 63;
+                bits |= inside << (row - base);
+            }
+            return bits;
+        }
+    }
+}
@@ -0,0 +1,538 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+// MODEL: Binary catalog file, read through a memory mapping.
+//
+// Layout (big endian), version 1:
+//   header   magic "LBCT", version, book count, author count,
+//            then the file positions of the four sections (longs)
+//   records  one fixed 20-byte record per book:
+//            title offset (int), author id (int), page count (int),
+//            kind, genre, status, format-or-cover (bytes),
+//            title length (short), unused (short)
+//   authors  offset and length (ints) of each author name
+//   sorted   book rows ordered by normalized title, for binary search
+//   strings  UTF-8 bytes of all titles and author names
+//
+// Opening only maps the file and reads the header. Every field is decoded
+// when it is read, so lookups work before the catalog is decoded as a whole.
+class CatalogFile {
+    static final int MAGIC = 0x4C424354;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 48;
+    static final int RECORD_BYTES = 20;
+
+    private CatalogFile() {
+    }
+
+    public static MappedBookStore open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Catalog file is larger than 2 GB: " + path);
+            }
+            if (length < HEADER_BYTES) {
+                throw new IOException("Not a catalog file: " + path);
+            }
+            // The mapping stays valid after the channel is closed.
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if (buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not a catalog file: " + path);
+            }
+            int version = buffer.getInt(4);
+            if (version != VERSION) {
+                throw new IOException("Unsupported catalog version " + version + " in " + path);
+            }
+            return new MappedBookStore(buffer);
+        }
+    }
+
+    // MODEL: Writes the books to a catalog file, replacing any existing file.
+    public static void write(Path path, Collection<? extends Book> books) throws IOException {
+        int count = books.size();
+        Map<String, Integer> authorIds = new HashMap<>();
+        List<byte[]> authorNames = new ArrayList<>();
+        byte[][] titles = new byte[count][];
+        String[] sortKeys = new String[count];
+        int[] authorOf = new int[count];
+
+        int row = 0;
+        for (Book book : books) {
+            String title = book.getDisplayTitle();
+            titles[row] = title.getBytes(StandardCharsets.UTF_8);
+            if (titles[row].length > Short.MAX_VALUE) {
+                throw new IOException("Title too long: " + title.substring(0, 40) + "...");
+            }
+            sortKeys[row] = TitleIndex.normalize(title);
+            Integer authorId = authorIds.get(book.getAuthor());
+            if (authorId == null) {
+                authorId = authorNames.size();
+                authorIds.put(book.getAuthor(), authorId);
+                authorNames.add(book.getAuthor().getBytes(StandardCharsets.UTF_8));
+            }
+            authorOf[row] = authorId;
+            row++;
+        }
+
+        Integer[] sorted = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            sorted[i] = i;
+        }
+        Arrays.sort(sorted, (a, b) -> sortKeys[a].compareTo(sortKeys[b]));
+
+        long recordsPos = HEADER_BYTES;
+        long authorsPos = recordsPos + (long) count * RECORD_BYTES;
+        long sortedPos = authorsPos + (long) authorNames.size() * 8;
+        long stringsPos = sortedPos + (long) count * 4;
+
+        try (OutputStream file = Files.newOutputStream(path);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(count);
+            out.writeInt(authorNames.size());
+            out.writeLong(recordsPos);
+            out.writeLong(authorsPos);
+            out.writeLong(sortedPos);
+            out.writeLong(stringsPos);
+
+            int stringOffset = 0;
+            row = 0;
+            for (Book book : books) {
+                out.writeInt(stringOffset);
+                out.writeInt(authorOf[row]);
+                out.writeInt(book.getPageCount());
+                out.writeByte(book instanceof PrintBook ? BookStore.PRINT : BookStore.DIGITAL);
+                out.writeByte(BookStore.ordinal(book.getGenre()));
+                out.writeByte(BookStore.ordinal(book.getStatus()));
+                if (book instanceof PrintBook) {
+                    out.writeByte(BookStore.ordinal(((PrintBook) book).getCoverType()));
+                } else {
+                    out.writeByte(BookStore.ordinal(((DigitalBook) book).getFormat()));
+                }
+                out.writeShort(titles[row].length);
+                out.writeShort(0);
+                stringOffset += titles[row].length;
+                row++;
+            }
+            for (byte[] name : authorNames) {
+                out.writeInt(stringOffset);
+                out.writeInt(name.length);
+                stringOffset += name.length;
+            }
+            for (Integer sortedRow : sorted) {
+                out.writeInt(sortedRow);
+            }
+            for (byte[] title : titles) {
+                out.write(title);
+            }
+            for (byte[] name : authorNames) {
+                out.write(name);
+            }
+        }
+    }
+}
+
+// MODEL: A BookStore whose rows are read straight from a mapped catalog file.
+// Book handles are created on first use and then reused, so a book keeps its
+// identity for the indexes and the loan lists. The file is never written:
+// status changes are kept in an in-memory overlay.
+class MappedBookStore extends BookStore {
+    private static final int OVERLAY_BIAS = 1 - NONE;
+
+    private final ByteBuffer buffer;
+    private final int count;
+    private final int authorCount;
+    private final int recordsPos;
+    private final int authorsPos;
+    private final int sortedPos;
+    private final int stringsPos;
+    private final String[] authorCache;
+    // Author name to id, built by the first query that filters on author.
+    private volatile Map<String, Integer> authorIds;
+    private Book[] handles;
+    private int handleCount;
+    // For rows whose status changed, the status byte as BookStore encodes
+    // it (NONE for null) plus OVERLAY_BIAS; 0 for rows still as in the file.
+    // Created on the first change and updated with compare-and-set.
+    private volatile byte[] statusOverlay;
+
+    MappedBookStore(ByteBuffer buffer) {
+        super(0);
+        this.buffer = buffer;
+        this.count = buffer.getInt(8);
+        this.authorCount = buffer.getInt(12);
+        this.recordsPos = (int) buffer.getLong(16);
+        this.authorsPos = (int) buffer.getLong(24);
+        this.sortedPos = (int) buffer.getLong(32);
+        this.stringsPos = (int) buffer.getLong(40);
+        this.authorCache = new String[authorCount];
+    }
+
+    @Override
+    int append(String title, String author, Genre genre, int pageCount, Status status, byte kind, byte detail) {
+        throw new UnsupportedOperationException("Catalog files are read-only");
+    }
+
+    @Override
+    void setTitle(int row, String title) {
+        throw new UnsupportedOperationException("Catalog files are read-only");
+    }
+
+    @Override
+    void setAuthor(int row, String author) {
+        throw new UnsupportedOperationException("Catalog files are read-only");
+    }
+
+    @Override
+    void setGenre(int row, Genre genre) {
+        throw new UnsupportedOperationException("Catalog files are read-only");
+    }
+
+    @Override
+    void setPageCount(int row, int pageCount) {
+        throw new UnsupportedOperationException("Catalog files are read-only");
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    private int record(int row) {
+        return recordsPos + row * CatalogFile.RECORD_BYTES;
+    }
+
+    private String string(int offset, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(stringsPos + offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String title(int row) {
+        int record = record(row);
+        return string(buffer.getInt(record), buffer.getShort(record + 16));
+    }
+
+    @Override
+    public int authorId(int row) {
+        return buffer.getInt(record(row) + 4);
+    }
+
+    @Override
+    public String author(int row) {
+        int id = authorId(row);
+        String author = authorCache[id];
+        if (author == null) {
+            author = string(buffer.getInt(authorsPos + id * 8), buffer.getInt(authorsPos + id * 8 + 4));
+            authorCache[id] = author;
+        }
+        return author;
+    }
+
+    @Override
+    public int pageCount(int row) {
+        return buffer.getInt(record(row) + 8);
+    }
+
+    @Override
+    public byte kind(int row) {
+        return buffer.get(record(row) + 12);
+    }
+
+    @Override
+    public Genre genre(int row) {
+        byte value = buffer.get(record(row) + 13);
+        return value == NONE ? null : GENRES[value];
+    }
+
+    @Override
+    public Status status(int row) {
+        byte[] overlay = statusOverlay;
+        if (overlay != null) {
+            byte changed = (byte) BYTES.getVolatile(overlay, row);
+            if (changed != 0) {
+                return overlaidStatus(changed);
+            }
+        }
+        return fileStatus(row);
+    }
+
+    private static Status overlaidStatus(byte changed) {
+        int value = changed - OVERLAY_BIAS;
+        return value == NONE ? null : STATUSES[value];
+    }
+
+    private Status fileStatus(int row) {
+        byte value = buffer.get(record(row) + 14);
+        return value == NONE ? null : STATUSES[value];
+    }
+
+    @Override
+    public Format format(int row) {
+        byte value = buffer.get(record(row) + 15);
+        return kind(row) != DIGITAL || value == NONE ? null : FORMATS[value];
+    }
+
+    @Override
+    public CoverType coverType(int row) {
+        byte value = buffer.get(record(row) + 15);
+        return kind(row) != PRINT || value == NONE ? null : COVER_TYPES[value];
+    }
+
+    @Override
+    protected boolean compareAndSetStatus(int row, Status expect, Status update) {
+        byte[] overlay = overlay();
+        byte changed = (byte) BYTES.getVolatile(overlay, row);
+        Status current = changed != 0 ? overlaidStatus(changed) : fileStatus(row);
+        if (current != expect) {
+            return false;
+        }
+        return BYTES.compareAndSet(overlay, row, changed, (byte) (ordinal(update) + OVERLAY_BIAS));
+    }
+
+    private byte[] overlay() {
+        byte[] overlay = statusOverlay;
+        if (overlay == null) {
+            synchronized (this) {
+                overlay = statusOverlay;
+                if (overlay == null) {
+                    overlay = new byte[count];
+                    statusOverlay = overlay;
+                }
+            }
+        }
+        return overlay;
+    }
+
+    // Only the handles and the overlay are on the heap; the rows are in the mapping.
+    @Override
+    public synchronized String memoryReport() {
+        long heap = (long) handleCount * HANDLE_BYTES + (handles == null ? 0 : (long) count * 4)
+                + (statusOverlay == null ? 0 : count);
+        return "MappedBookStore: " + count + " rows, " + authorCount + " distinct authors, "
+                + buffer.capacity() / 1024 + " KiB mapped, "
+                + (statusOverlay == null ? 0 : count / 1024) + " KiB status overlay, "
+                + handleCount + " books created, about " + (count == 0 ? 0 : heap / count)
+                + " heap bytes per book against " + PROPERTY_BOOK_BYTES + " built from properties";
+    }
+
+    // MODEL: Returns the handle of a row, creating it on first use.
+    public synchronized Book book(int row) {
+        if (handles == null) {
+            handles = new Book[count];
+        }
+        Book book = handles[row];
+        if (book == null) {
+            book = kind(row) == PRINT ? new PrintBook(this, row) : new DigitalBook(this, row);
+            handles[row] = book;
+            handleCount++;
+        }
+        return book;
+    }
+
+    // MODEL: All books of the catalog as a list; handles are created as it is read.
+    public List<Book> books() {
+        return new AbstractList<Book>() {
+            @Override
+            public Book get(int index) {
+                return book(index);
+            }
+
+            @Override
+            public int size() {
+                return count;
+            }
+        };
+    }
+
+    private String sortKey(int position) {
+        return TitleIndex.normalize(title(buffer.getInt(sortedPos + position * 4)));
+    }
+
+    // First position in the title order whose key is >= key.
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sortKey(mid).compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // MODEL: Exact title lookup by binary search over the sorted section,
+    // decoding only the titles it probes.
+    public Book findByTitle(String title) {
+        String key = TitleIndex.normalize(title);
+        int position = lowerBound(key);
+        if (position < count && sortKey(position).equals(key)) {
+            return book(buffer.getInt(sortedPos + position * 4));
+        }
+        return null;
+    }
+
+    // MODEL: Every book with this title, in row order.
+    public List<Book> findAllByTitle(String title) {
+        String key = TitleIndex.normalize(title);
+        List<Book> result = new ArrayList<>(1);
+        for (int position = lowerBound(key); position < count && sortKey(position).equals(key); position++) {
+            result.add(book(buffer.getInt(sortedPos + position * 4)));
+        }
+        return result;
+    }
+
+    // MODEL: Returns up to limit books whose title starts with prefix, in title order.
+    public List<Book> findByTitlePrefix(String prefix, int limit) {
+        String key = TitleIndex.normalize(prefix);
+        List<Book> result = new ArrayList<>();
+        for (int position = lowerBound(key); position < count && result.size() < limit; position++) {
+            if (!sortKey(position).startsWith(key)) {
+                break;
+            }
+            result.add(book(buffer.getInt(sortedPos + position * 4)));
+        }
+        return result;
+    }
+
+    // Each author name is decoded once, here, instead of on every author query.
+    private Map<String, Integer> authorIds() {
+        Map<String, Integer> ids = authorIds;
+        if (ids == null) {
+            ids = new HashMap<>(authorCount * 2);
+            for (int id = 0; id < authorCount; id++) {
+                int offset = authorsPos + id * 8;
+                ids.put(string(buffer.getInt(offset), buffer.getInt(offset + 4)), id);
+            }
+            authorIds = ids;
+        }
+        return ids;
+    }
+
+    // MODEL: Scans the record bytes for a query and only creates handles
+    // for the matching rows. An author is matched by its id in the records.
+    public List<Book> select(BookQuery query) {
+        int authorFilter = -1;
+        if (query.getAuthor() != null) {
+            Integer id = authorIds().get(query.getAuthor());
+            if (id == null) {
+                return new ArrayList<>();
+            }
+            authorFilter = id;
+        }
+        byte kindFilter = query.getType() == PrintBook.class ? PRINT
+                : query.getType() == DigitalBook.class ? DIGITAL : NONE;
+        byte genreFilter = ordinal(query.getGenre());
+        byte detailFilter = query.getFormat() != null ? ordinal(query.getFormat())
+                : ordinal(query.getCoverType());
+
+        List<Book> result = new ArrayList<>();
+        for (int row = 0; row < count; row++) {
+            int record = record(row);
+            if (kindFilter != NONE && buffer.get(record + 12) != kindFilter) {
+                continue;
+            }
+            if (genreFilter != NONE && buffer.get(record + 13) != genreFilter) {
+                continue;
+            }
+            if (authorFilter >= 0 && buffer.getInt(record + 4) != authorFilter) {
+                continue;
+            }
+            if (query.getFormat() != null && (kind(row) != DIGITAL || buffer.get(record + 15) != detailFilter)) {
+                continue;
+            }
+            if (query.getCoverType() != null && (kind(row) != PRINT || buffer.get(record + 15) != detailFilter)) {
+                continue;
+            }
+            if (query.getStatus() != null && status(row) != query.getStatus()) {
+                continue;
+            }
+            int pages = buffer.getInt(record + 8);
+            if (pages < query.getMinPages() || pages > query.getMaxPages()) {
+                continue;
+            }
+            result.add(book(row));
+        }
+        return result;
+    }
+}
+
+// MODEL: The rows of a mapped catalog as a list that can be changed.
+// Reading it only creates the handles that are read. The first change
+// copies every handle into an ordinary list, which holds the books from
+// then on.
+class MappedBookList extends AbstractList<Book> implements RandomAccess {
+    private final MappedBookStore store;
+    private List<Book> changed;
+
+    MappedBookList(MappedBookStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public Book get(int index) {
+        if (changed != null) {
+            return changed.get(index);
+        }
+        return store.book(Objects.checkIndex(index, store.size()));
+    }
+
+    @Override
+    public int size() {
+        return changed != null ? changed.size() : store.size();
+    }
+
+    @Override
+    public Book set(int index, Book book) {
+        return copy().set(index, book);
+    }
+
+    @Override
+    public void add(int index, Book book) {
+        copy().add(index, book);
+        modCount++;
+    }
+
+    @Override
+    public Book remove(int index) {
+        Book removed = copy().remove(index);
+        modCount++;
+        return removed;
+    }
+
+    @Override
+    public void clear() {
+        changed = new ArrayList<>();
+        modCount++;
+    }
+
+    private List<Book> copy() {
+        if (changed == null) {
+            changed = new ArrayList<>(store.books());
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,287 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+// MODEL: Deterministic generator of large, realistic catalogs: the same size
+// and seed always give the same books. Genres, formats and cover types follow
+// fixed weights, a few authors write most of the books (Zipf), page counts
+// are log-normal around 300, some titles come back as other editions and a
+// share of the books starts out on loan or without a download licence.
+// Books go straight into a BookStore, or to a CSV file for CatalogImporter,
+// or to a binary catalog for CatalogFile.
+//
+// Usage: CatalogGenerator <size> [--seed=n] [--authors=n] (--csv=<file> | --catalog=<file>)
+public class CatalogGenerator {
+    private static final Genre[] GENRES = { Genre.FICTION, Genre.NON_FICTION, Genre.MYSTERY, Genre.FANTASY,
+            Genre.SCIENCE_FICTION, Genre.ROMANCE, Genre.POETRY };
+    private static final double[] GENRE_WEIGHTS = { 30, 22, 14, 11, 9, 11, 3 };
+    private static final CoverType[] COVERS = { CoverType.PAPERBACK, CoverType.HARDCOVER, CoverType.MAGAZINE,
+            CoverType.GRAPHIC_NOVEL, CoverType.SPIRAL_BOUND, CoverType.LEATHER_BOUND };
+    private static final double[] COVER_WEIGHTS = { 55, 30, 7, 5, 2, 1 };
+    private static final Format[] FORMATS = { Format.EPUB, Format.PDF, Format.AZW, Format.TXT, Format.HTML,
+            Format.DOCX, Format.DJVU };
+    private static final double[] FORMAT_WEIGHTS = { 45, 30, 15, 3, 3, 2, 2 };
+
+    private static final String[] FIRST_NAMES = { "Ada", "Ben", "Clara", "David", "Elena", "Farid", "Grace",
+            "Hiro", "Ines", "Jonas", "Kira", "Liam", "Maya", "Noah", "Olga", "Pablo", "Quinn", "Rosa", "Sami",
+            "Tara", "Umar", "Vera", "Wen", "Xavier", "Yara", "Zoe" };
+    private static final String[] LAST_NAMES = { "Abbott", "Bauer", "Castillo", "Dubois", "Eriksen", "Fischer",
+            "Garcia", "Haddad", "Ito", "Jensen", "Kowalski", "Lindqvist", "Moreau", "Nakamura", "Okafor", "Petrov",
+            "Quiroga", "Rossi", "Schmidt", "Tanaka", "Ueda", "Varga", "Walsh", "Xu", "Young", "Zielinski" };
+    private static final String[] ADJECTIVES = { "Silent", "Broken", "Hidden", "Golden", "Last", "Forgotten",
+            "Crimson", "Endless", "Quiet", "Burning", "Frozen", "Secret", "Wild", "Distant", "Hollow", "Bright",
+            "Lost", "Iron", "Glass", "Midnight" };
+    private static final String[] NOUNS = { "River", "Garden", "Crown", "Empire", "Harbor", "Shadow", "Letter",
+            "Forest", "Storm", "Kingdom", "Mirror", "Orchard", "Lantern", "Tide", "Bridge", "Island", "Winter",
+            "Station", "Library", "Machine", "Daughter", "Map", "Song", "Door", "Clock" };
+    private static final String[] PLACES = { "Lisbon", "the North", "Kyoto", "the Valley", "Marrakesh", "Avalon",
+            "the Deep", "Prague", "the Old Town", "Orion", "Cairo", "the Coast" };
+
+    private final long seed;
+    private int authorCount;
+    // Share of print books (the rest are digital).
+    private double printShare = 0.65;
+    // Share of print books already on loan, and of digital books without a licence.
+    private double onLoanShare = 0.15;
+    private double unlicensedShare = 0.05;
+    // Share of books that reuse an earlier title (another edition or author).
+    private double repeatTitleShare = 0.04;
+
+    public CatalogGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    // Distinct authors; by default one per eight books.
+    public CatalogGenerator authors(int authorCount) {
+        this.authorCount = authorCount;
+        return this;
+    }
+
+    public CatalogGenerator printShare(double printShare) {
+        this.printShare = printShare;
+        return this;
+    }
+
+    public CatalogGenerator onLoanShare(double onLoanShare) {
+        this.onLoanShare = onLoanShare;
+        return this;
+    }
+
+    // MODEL: One generated book, before it is stored anywhere.
+    static class Record {
+        boolean print;
+        String title;
+        String author;
+        Genre genre;
+        int pages;
+        Status status;
+        CoverType coverType;
+        Format format;
+    }
+
+    // Receives the records in order. The record is reused for the next
+    // book, so copy what you keep.
+    interface RecordSink {
+        void accept(Record record) throws IOException;
+    }
+
+    // MODEL: Generates size books into a new store.
+    public List<Book> generate(int size) {
+        BookStore store = new BookStore(size);
+        List<Book> books = new ArrayList<>(size);
+        try {
+            generate(size, record -> books.add(record.print
+                    ? store.addPrintBook(record.title, record.author, record.genre, record.pages, record.coverType,
+                            record.status)
+                    : store.addDigitalBook(record.title, record.author, record.genre, record.pages, record.format,
+                            record.status)));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return books;
+    }
+
+    // MODEL: Streams size books to a CSV file in CatalogImporter's format,
+    // without keeping them in memory.
+    public void writeCsv(Path path, int size) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            out.write(String.join(",", CatalogImporter.COLUMNS));
+            out.newLine();
+            generate(size, record -> {
+                out.write(record.print ? "print" : "digital");
+                out.write(',');
+                out.write(csv(record.title));
+                out.write(',');
+                out.write(csv(record.author));
+                out.write(',');
+                out.write(record.genre.name());
+                out.write(',');
+                out.write(Integer.toString(record.pages));
+                out.write(',');
+                out.write(record.status.name());
+                out.write(',');
+                out.write(record.print ? record.coverType.name() : record.format.name());
+                out.newLine();
+            });
+        }
+    }
+
+    private static String csv(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    // MODEL: Core of the generator. Every random draw comes from one
+    // sequence in a fixed order, which makes the output repeatable.
+    public void generate(int size, RecordSink sink) throws IOException {
+        SplittableRandom random = new SplittableRandom(seed);
+        int authorTotal = authorCount > 0 ? authorCount : Math.max(10, size / 8);
+        String[] authors = authorNames(random, authorTotal);
+        double[] authorCdf = zipfCdf(authorTotal, 1.0);
+        double[] genreCdf = cdf(GENRE_WEIGHTS);
+        double[] coverCdf = cdf(COVER_WEIGHTS);
+        double[] formatCdf = cdf(FORMAT_WEIGHTS);
+        List<String> titles = new ArrayList<>();
+        Record record = new Record();
+        for (int i = 0; i < size; i++) {
+            record.print = random.nextDouble() < printShare;
+            if (!titles.isEmpty() && random.nextDouble() < repeatTitleShare) {
+                record.title = titles.get(random.nextInt(titles.size()));
+            } else {
+                record.title = title(random);
+                // Only a sample is kept for repeats, so memory stays bounded.
+                if (titles.size() < 10_000) {
+                    titles.add(record.title);
+                }
+            }
+            record.author = authors[pick(authorCdf, random)];
+            record.genre = GENRES[pick(genreCdf, random)];
+            if (record.print) {
+                record.coverType = COVERS[pick(coverCdf, random)];
+                record.format = null;
+                record.status = random.nextDouble() < onLoanShare ? Status.UNAVAILABLE : Status.AVAILABLE;
+            } else {
+                record.format = FORMATS[pick(formatCdf, random)];
+                record.coverType = null;
+                record.status = random.nextDouble() < unlicensedShare ? Status.UNDOWNLOADABLE
+                        : Status.DOWNLOADABLE;
+            }
+            record.pages = pages(random, record);
+            sink.accept(record);
+        }
+    }
+
+    // Distinct names: every first and last name pair, then the pairs again
+    // with a middle initial, then with a number.
+    private static String[] authorNames(SplittableRandom random, int count) {
+        int pairs = FIRST_NAMES.length * LAST_NAMES.length;
+        int start = random.nextInt(pairs);
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            int n = start + i;
+            int initial = n / pairs % 27;
+            String name = FIRST_NAMES[n % FIRST_NAMES.length] + " "
+                    + (initial == 0 ? "" : (char) ('A' + initial - 1) + ". ")
+                    + LAST_NAMES[n / FIRST_NAMES.length % LAST_NAMES.length];
+            names[i] = n < pairs * 27 ? name : name + " " + (n / (pairs * 27) + 1);
+        }
+        return names;
+    }
+
+    private static String title(SplittableRandom random) {
+        String adjective = ADJECTIVES[random.nextInt(ADJECTIVES.length)];
+        String noun = NOUNS[random.nextInt(NOUNS.length)];
+        switch (random.nextInt(5)) {
+            case 0:
+                return "The " + adjective + " " + noun;
+            case 1:
+                return noun + " of " + NOUNS[random.nextInt(NOUNS.length)];
+            case 2:
+                return "A " + noun + " in " + PLACES[random.nextInt(PLACES.length)];
+            case 3:
+                return "The " + noun + " of " + PLACES[random.nextInt(PLACES.length)];
+            default:
+                return adjective + " " + noun + ", Book " + (1 + random.nextInt(12));
+        }
+    }
+
+    // Log-normal around 300 pages; magazines and poetry are short.
+    private static int pages(SplittableRandom random, Record record) {
+        double median = record.coverType == CoverType.MAGAZINE ? 60 : record.genre == Genre.POETRY ? 120 : 300;
+        double pages = median * Math.exp(0.45 * random.nextGaussian());
+        return (int) Math.max(16, Math.min(2000, Math.round(pages)));
+    }
+
+    private static double[] cdf(double[] weights) {
+        double[] cdf = new double[weights.length];
+        double sum = 0;
+        for (int i = 0; i < weights.length; i++) {
+            sum += weights[i];
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < cdf.length; i++) {
+            cdf[i] /= sum;
+        }
+        return cdf;
+    }
+
+    // Rank i (from 0) is drawn with weight 1 / (i + 1)^exponent.
+    static double[] zipfCdf(int count, double exponent) {
+        double[] weights = new double[count];
+        for (int i = 0; i < count; i++) {
+            weights[i] = 1 / Math.pow(i + 1, exponent);
+        }
+        return cdf(weights);
+    }
+
+    static int pick(double[] cdf, SplittableRandom random) {
+        int at = Arrays.binarySearch(cdf, random.nextDouble());
+        return Math.min(at < 0 ? -at - 1 : at, cdf.length - 1);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Usage: CatalogGenerator <size> [--seed=n] [--authors=n] "
+                    + "(--csv=<file> | --catalog=<file>)");
+            return;
+        }
+        int size = Integer.parseInt(args[0]);
+        long seed = 42;
+        int authors = 0;
+        String csv = null;
+        String catalog = null;
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.startsWith("--seed=")) {
+                seed = Long.parseLong(arg.substring("--seed=".length()));
+            } else if (arg.startsWith("--authors=")) {
+                authors = Integer.parseInt(arg.substring("--authors=".length()));
+            } else if (arg.startsWith("--csv=")) {
+                csv = arg.substring("--csv=".length());
+            } else if (arg.startsWith("--catalog=")) {
+                catalog = arg.substring("--catalog=".length());
+            } else {
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+        }
+        CatalogGenerator generator = new CatalogGenerator(seed).authors(authors);
+        long start = System.nanoTime();
+        if (csv != null) {
+            generator.writeCsv(Paths.get(csv), size);
+        } else if (catalog != null) {
+            CatalogFile.write(Paths.get(catalog), generator.generate(size));
+        } else {
+            throw new IllegalArgumentException("Give --csv=<file> or --catalog=<file>");
+        }
+        System.out.printf("Generated %,d books in %d ms%n", size, (System.nanoTime() - start) / 1_000_000);
+    }
+}
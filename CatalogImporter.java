@@ -0,0 +1,530 @@
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+// MODEL: Streaming import of CSV or JSON Lines catalogs into a Library.
+//
+// A reader thread cuts the file into chunks of lines, a pool of parser threads
+// turns each chunk into compact books (validating every record), and a
+// publisher thread collects the parsed chunks in file order and hands them to
+// the Library in large batches through the given executor (Platform::runLater
+// in the app), so the table sees one list change per batch instead of one per
+// book. Progress is reported after every batch.
+//
+// CSV files start with a header row naming the columns:
+//   type,title,author,genre,pages,status,edition
+// where type is print or digital and edition is the cover type or format.
+// Quoted fields may contain commas and doubled quotes, but not line breaks.
+// JSON files hold one flat object per line with the same keys (a file that
+// wraps those lines in [ ] with trailing commas is accepted too).
+class CatalogImporter {
+    static final String[] COLUMNS = { "type", "title", "author", "genre", "pages", "status", "edition" };
+
+    // Summary of an import, reported while it runs and when it finishes.
+    static class ImportStats {
+        private final long records;
+        private final long rejected;
+        private final long bytesRead;
+        private final long totalBytes;
+        private final long elapsedNanos;
+        private final boolean done;
+        private final List<String> errors;
+
+        ImportStats(long records, long rejected, long bytesRead, long totalBytes, long elapsedNanos, boolean done,
+                List<String> errors) {
+            this.records = records;
+            this.rejected = rejected;
+            this.bytesRead = bytesRead;
+            this.totalBytes = totalBytes;
+            this.elapsedNanos = elapsedNanos;
+            this.done = done;
+            this.errors = errors;
+        }
+
+        public long getRecords() {
+            return records;
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+
+        public boolean isDone() {
+            return done;
+        }
+
+        // The first rejected records with the reason, capped at MAX_ERRORS.
+        public List<String> getErrors() {
+            return errors;
+        }
+
+        public double getProgress() {
+            return totalBytes <= 0 ? 0 : Math.min(1.0, (double) bytesRead / totalBytes);
+        }
+
+        public double getRecordsPerSecond() {
+            return elapsedNanos == 0 ? 0 : records * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d books imported, %d rejected, %.0f%% read, %.0f books/s%s", records, rejected,
+                    getProgress() * 100, getRecordsPerSecond(), done ? " (done)" : "");
+        }
+    }
+
+    static final int MAX_ERRORS = 100;
+
+    private final Library library;
+    private final BookStore store;
+    private final Executor publisher;
+    private int chunkLines = 4096;
+    private int batchSize = 50_000;
+    private int parserThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    private Consumer<ImportStats> progressListener = stats -> { };
+    private volatile boolean cancelled;
+
+    // publisher runs the Library updates and progress callbacks,
+    // use Platform::runLater when the Library is shown in the UI.
+    public CatalogImporter(Library library, BookStore store, Executor publisher) {
+        this.library = library;
+        this.store = store;
+        this.publisher = publisher;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    public void setChunkLines(int chunkLines) {
+        this.chunkLines = Math.max(1, chunkLines);
+    }
+
+    public void setParserThreads(int parserThreads) {
+        this.parserThreads = Math.max(1, parserThreads);
+    }
+
+    public void setProgressListener(Consumer<ImportStats> progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    // MODEL: Starts the import in the background. The future completes after
+    // the last batch has been handed to the publisher executor.
+    public CompletableFuture<ImportStats> start(Path path) {
+        boolean json = path.getFileName().toString().toLowerCase(Locale.ROOT).matches(".*\\.jsonl?$");
+        CompletableFuture<ImportStats> result = new CompletableFuture<>();
+        Thread reader = new Thread(() -> run(path, json, result), "catalog-import");
+        reader.setDaemon(true);
+        reader.start();
+        return result;
+    }
+
+    // One parsed chunk: the books plus the rejected lines.
+    private static class Chunk {
+        final List<Book> books = new ArrayList<>();
+        final List<String> errors = new ArrayList<>();
+        long bytesRead;
+        boolean last;
+    }
+
+    private void run(Path path, boolean json, CompletableFuture<ImportStats> result) {
+        long started = System.nanoTime();
+        ExecutorService parsers = Executors.newFixedThreadPool(parserThreads, runnable -> {
+            Thread thread = new Thread(runnable, "catalog-parser");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Bounded so the reader cannot run far ahead of the parsers.
+        BlockingQueue<Future<Chunk>> inFlight = new ArrayBlockingQueue<>(parserThreads * 4);
+        Thread publisherThread = new Thread(() -> publish(inFlight, path, started, result), "catalog-publish");
+        publisherThread.setDaemon(true);
+        publisherThread.start();
+
+        try (CountingInputStream in = new CountingInputStream(Files.newInputStream(path));
+                BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8),
+                        1 << 16)) {
+            int[] columns = null;
+            long lineNumber = 0;
+            List<String> lines = new ArrayList<>(chunkLines);
+            long firstLine = 1;
+            String line;
+            while (!cancelled && (line = reader.readLine()) != null) {
+                lineNumber++;
+                if (!json && columns == null) {
+                    columns = headerColumns(line);
+                    firstLine = lineNumber + 1;
+                    continue;
+                }
+                lines.add(line);
+                if (lines.size() == chunkLines) {
+                    submit(parsers, inFlight, lines, firstLine, columns, json, in.count(), false);
+                    lines = new ArrayList<>(chunkLines);
+                    firstLine = lineNumber + 1;
+                }
+            }
+            submit(parsers, inFlight, lines, firstLine, columns, json, in.count(), true);
+        } catch (IOException | InterruptedException e) {
+            result.completeExceptionally(e);
+            publisherThread.interrupt();
+        } finally {
+            parsers.shutdown();
+        }
+    }
+
+    private void submit(ExecutorService parsers, BlockingQueue<Future<Chunk>> inFlight, List<String> lines,
+            long firstLine, int[] columns, boolean json, long bytesRead, boolean last) throws InterruptedException {
+        inFlight.put(parsers.submit(() -> {
+            Chunk chunk = parse(lines, firstLine, columns, json);
+            chunk.bytesRead = bytesRead;
+            chunk.last = last;
+            return chunk;
+        }));
+    }
+
+    private void publish(BlockingQueue<Future<Chunk>> inFlight, Path path, long started,
+            CompletableFuture<ImportStats> result) {
+        long totalBytes;
+        try {
+            totalBytes = Files.size(path);
+        } catch (IOException e) {
+            totalBytes = -1;
+        }
+        long records = 0;
+        long rejected = 0;
+        List<String> errors = new ArrayList<>();
+        List<Book> batch = new ArrayList<>(batchSize);
+        try {
+            while (true) {
+                Chunk chunk = inFlight.take().get();
+                records += chunk.books.size();
+                rejected += chunk.errors.size();
+                for (String error : chunk.errors) {
+                    if (errors.size() < MAX_ERRORS) {
+                        errors.add(error);
+                    }
+                }
+                batch.addAll(chunk.books);
+                if (batch.size() >= batchSize || chunk.last || cancelled) {
+                    ImportStats stats = new ImportStats(records, rejected, chunk.bytesRead, totalBytes,
+                            System.nanoTime() - started, chunk.last || cancelled,
+                            Collections.unmodifiableList(new ArrayList<>(errors)));
+                    List<Book> published = batch;
+                    publisher.execute(() -> {
+                        // MODEL: One list change for the whole batch.
+                        library.addBooks(published);
+                        progressListener.accept(stats);
+                    });
+                    batch = new ArrayList<>(batchSize);
+                    if (stats.isDone()) {
+                        result.complete(stats);
+                        return;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.completeExceptionally(e);
+        } catch (ExecutionException e) {
+            // Stops the reader, which may be waiting for room in the queue.
+            cancelled = true;
+            inFlight.clear();
+            result.completeExceptionally(e.getCause());
+        }
+    }
+
+    private int[] headerColumns(String header) throws IOException {
+        List<String> names = splitCsv(header);
+        int[] columns = new int[COLUMNS.length];
+        for (int i = 0; i < COLUMNS.length; i++) {
+            columns[i] = -1;
+            for (int j = 0; j < names.size(); j++) {
+                if (names.get(j).trim().equalsIgnoreCase(COLUMNS[i])) {
+                    columns[i] = j;
+                }
+            }
+            if (columns[i] < 0) {
+                throw new IOException("CSV header is missing the " + COLUMNS[i] + " column");
+            }
+        }
+        return columns;
+    }
+
+    // Runs on a parser thread.
+    private Chunk parse(List<String> lines, long firstLine, int[] columns, boolean json) {
+        Chunk chunk = new Chunk();
+        String[] values = new String[COLUMNS.length];
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.equals("[") || line.equals("]")) {
+                continue;
+            }
+            try {
+                if (json) {
+                    readJson(line, values);
+                } else {
+                    List<String> fields = splitCsv(line);
+                    for (int c = 0; c < COLUMNS.length; c++) {
+                        values[c] = columns[c] < fields.size() ? fields.get(columns[c]).trim() : null;
+                    }
+                }
+                chunk.books.add(toBook(values));
+            } catch (IllegalArgumentException e) {
+                chunk.errors.add("line " + (firstLine + i) + ": " + e.getMessage());
+            }
+        }
+        return chunk;
+    }
+
+    // MODEL: Validates one record and converts it into a compact book.
+    private Book toBook(String[] values) {
+        String type = required(values, 0);
+        String title = required(values, 1);
+        String author = required(values, 2);
+        Genre genre = parseEnum(Genre.class, required(values, 3));
+        int pages;
+        try {
+            pages = Integer.parseInt(required(values, 4));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("pages is not a number: " + values[4]);
+        }
+        if (pages < 0) {
+            throw new IllegalArgumentException("pages is negative: " + pages);
+        }
+        Status status = parseEnum(Status.class, required(values, 5));
+        String edition = values[6];
+        if (type.equalsIgnoreCase("print")) {
+            if (status != Status.AVAILABLE && status != Status.UNAVAILABLE) {
+                throw new IllegalArgumentException("print books must be Available or Unavailable: " + status);
+            }
+            CoverType coverType = edition == null || edition.isEmpty() ? null : parseEnum(CoverType.class, edition);
+            return store.addPrintBook(title, author, genre, pages, coverType, status);
+        } else if (type.equalsIgnoreCase("digital")) {
+            if (status != Status.DOWNLOADABLE && status != Status.UNDOWNLOADABLE) {
+                throw new IllegalArgumentException(
+                        "digital books must be Downloadable or Undownloadable: " + status);
+            }
+            Format format = edition == null || edition.isEmpty() ? null : parseEnum(Format.class, edition);
+            return store.addDigitalBook(title, author, genre, pages, format, status);
+        }
+        throw new IllegalArgumentException("type must be print or digital: " + type);
+    }
+
+    private static String required(String[] values, int column) {
+        String value = values[column];
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException(COLUMNS[column] + " is missing");
+        }
+        return value;
+    }
+
+    // Accepts "Science Fiction", "science-fiction" and "SCIENCE_FICTION".
+    static <E extends Enum<E>> E parseEnum(Class<E> type, String value) {
+        String name = value.trim().toUpperCase(Locale.ROOT).replace(' ', '_').replace('-', '_');
+        try {
+            return Enum.valueOf(type, name);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("unknown " + type.getSimpleName() + ": " + value);
+        }
+    }
+
+    static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("unterminated quote");
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    // Reads one flat JSON object with string or number values into the columns.
+    // The format and coverType keys are both accepted for the edition column.
+    static void readJson(String line, String[] values) {
+        Map<String, String> object = new HashMap<>();
+        int i = line.endsWith(",") ? line.length() - 1 : line.length();
+        JsonCursor cursor = new JsonCursor(line.substring(0, i));
+        cursor.expect('{');
+        if (!cursor.peek('}')) {
+            do {
+                String key = cursor.string();
+                cursor.expect(':');
+                object.put(key, cursor.value());
+            } while (cursor.next(','));
+        }
+        cursor.expect('}');
+        for (int c = 0; c < COLUMNS.length; c++) {
+            values[c] = object.get(COLUMNS[c]);
+        }
+        if (values[6] == null) {
+            values[6] = object.containsKey("format") ? object.get("format") : object.get("coverType");
+        }
+        if (values[4] == null) {
+            values[4] = object.get("pageCount");
+        }
+    }
+
+    private static class JsonCursor {
+        private final String text;
+        private int position;
+
+        JsonCursor(String text) {
+            this.text = text;
+        }
+
+        private void skipSpace() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+        }
+
+        boolean peek(char c) {
+            skipSpace();
+            return position < text.length() && text.charAt(position) == c;
+        }
+
+        boolean next(char c) {
+            if (peek(c)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        void expect(char c) {
+            if (!next(c)) {
+                throw new IllegalArgumentException("expected '" + c + "' at column " + (position + 1));
+            }
+        }
+
+        String value() {
+            if (peek('"')) {
+                return string();
+            }
+            int start = position;
+            while (position < text.length() && ",}".indexOf(text.charAt(position)) < 0) {
+                position++;
+            }
+            String literal = text.substring(start, position).trim();
+            return literal.equals("null") ? null : literal;
+        }
+
+        String string() {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (position < text.length()) {
+                char c = text.charAt(position++);
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c == '\\' && position < text.length()) {
+                    char escaped = text.charAt(position++);
+                    switch (escaped) {
+                        case 'n':
+                            value.append('\n');
+                            break;
+                        case 't':
+                            value.append('\t');
+                            break;
+                        case 'r':
+                            value.append('\r');
+                            break;
+                        case 'b':
+                            value.append('\b');
+                            break;
+                        case 'f':
+                            value.append('\f');
+                            break;
+                        case 'u':
+                            if (position + 4 > text.length()) {
+                                throw new IllegalArgumentException("bad \\u escape");
+                            }
+                            value.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                            position += 4;
+                            break;
+                        default:
+                            value.append(escaped);
+                    }
+                } else {
+                    value.append(c);
+                }
+            }
+            throw new IllegalArgumentException("unterminated string");
+        }
+    }
+
+    // Counts the bytes read so progress can be reported against the file size.
+    private static class CountingInputStream extends FilterInputStream {
+        private volatile long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long count() {
+            return count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+}
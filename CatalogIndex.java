@@ -0,0 +1,217 @@
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// MODEL: Secondary indexes over the books of a Library.
+// Every book gets a row number when it is added. Each genre, status, book
+// type, format, cover type and author keeps a bitset of the rows that match
+// it, so a filter is a bitset intersection instead of a scan with instanceof
+// checks. Authors are filed under their AuthorDictionary id.
+// The same attributes are also kept per row in CatalogColumns, for queries
+// that are cheaper to answer with a parallel scan than with the bitsets.
+// Rows of removed books are left empty and never reused, which keeps the
+// row order equal to insertion order.
+class CatalogIndex {
+    private final List<Book> rows;
+    private final Map<Book, Integer> rowIds;
+    private final BitSet live;
+    private final BitSet digital;
+    private final BitSet print;
+    private final EnumMap<Genre, BitSet> byGenre;
+    private final EnumMap<Status, BitSet> byStatus;
+    private final AuthorDictionary authors;
+    // Rows of each author, by author id.
+    private final List<BitSet> byAuthor;
+    // Attribute values of each row, including its author id.
+    private final CatalogColumns columns;
+    private final EnumMap<Format, BitSet> byFormat;
+    private final EnumMap<CoverType, BitSet> byCoverType;
+
+    public CatalogIndex() {
+        this.rows = new ArrayList<>();
+        this.rowIds = new IdentityHashMap<>();
+        this.live = new BitSet();
+        this.digital = new BitSet();
+        this.print = new BitSet();
+        this.byGenre = new EnumMap<>(Genre.class);
+        for (Genre genre : Genre.values()) {
+            byGenre.put(genre, new BitSet());
+        }
+        this.byStatus = new EnumMap<>(Status.class);
+        for (Status status : Status.values()) {
+            byStatus.put(status, new BitSet());
+        }
+        this.authors = new AuthorDictionary();
+        this.byAuthor = new ArrayList<>();
+        this.columns = new CatalogColumns();
+        this.byFormat = new EnumMap<>(Format.class);
+        for (Format format : Format.values()) {
+            byFormat.put(format, new BitSet());
+        }
+        this.byCoverType = new EnumMap<>(CoverType.class);
+        for (CoverType coverType : CoverType.values()) {
+            byCoverType.put(coverType, new BitSet());
+        }
+    }
+
+    public void add(Book book) {
+        if (rowIds.containsKey(book)) {
+            return;
+        }
+        int row = rows.size();
+        rows.add(book);
+        rowIds.put(book, row);
+        live.set(row);
+
+        if (book instanceof DigitalBook) {
+            digital.set(row);
+            Format format = ((DigitalBook) book).getFormat();
+            if (format != null) {
+                byFormat.get(format).set(row);
+            }
+        } else if (book instanceof PrintBook) {
+            print.set(row);
+            CoverType coverType = ((PrintBook) book).getCoverType();
+            if (coverType != null) {
+                byCoverType.get(coverType).set(row);
+            }
+        }
+        if (book.getGenre() != null) {
+            byGenre.get(book.getGenre()).set(row);
+        }
+        if (book.getStatus() != null) {
+            byStatus.get(book.getStatus()).set(row);
+        }
+        int author = authors.id(book.getAuthor());
+        if (author == byAuthor.size()) {
+            byAuthor.add(new BitSet());
+        }
+        byAuthor.get(author).set(row);
+        columns.set(row, book, author);
+    }
+
+    public void remove(Book book) {
+        Integer row = rowIds.remove(book);
+        if (row == null) {
+            return;
+        }
+        rows.set(row, null);
+        live.clear(row);
+        digital.clear(row);
+        print.clear(row);
+        for (BitSet bits : byGenre.values()) {
+            bits.clear(row);
+        }
+        for (BitSet bits : byStatus.values()) {
+            bits.clear(row);
+        }
+        for (BitSet bits : byFormat.values()) {
+            bits.clear(row);
+        }
+        for (BitSet bits : byCoverType.values()) {
+            bits.clear(row);
+        }
+        // By the stored id, so the author string is not hashed again.
+        byAuthor.get(columns.author(row)).clear(row);
+        columns.remove(row);
+    }
+
+    // MODEL: Moves the book's row to the status it has now, whatever it was
+    // before. The owning Library calls it for each queued status change.
+    public void refreshStatus(Book book) {
+        Integer row = rowIds.get(book);
+        if (row == null) {
+            return;
+        }
+        for (BitSet bits : byStatus.values()) {
+            bits.clear(row);
+        }
+        Status status = book.getStatus();
+        if (status != null) {
+            byStatus.get(status).set(row);
+        }
+        columns.setStatus(row, status);
+    }
+
+    public boolean contains(Book book) {
+        return rowIds.containsKey(book);
+    }
+
+    public int size() {
+        return rowIds.size();
+    }
+
+    // Rows handed out so far, including those of removed books.
+    public int rowCount() {
+        return rows.size();
+    }
+
+    // The bitsets below are the live index, callers must copy before changing them.
+    public BitSet all() {
+        return live;
+    }
+
+    public BitSet digital() {
+        return digital;
+    }
+
+    public BitSet print() {
+        return print;
+    }
+
+    public BitSet genre(Genre genre) {
+        return byGenre.get(genre);
+    }
+
+    public BitSet status(Status status) {
+        return byStatus.get(status);
+    }
+
+    public BitSet format(Format format) {
+        return byFormat.get(format);
+    }
+
+    public BitSet coverType(CoverType coverType) {
+        return byCoverType.get(coverType);
+    }
+
+    public BitSet author(String author) {
+        int id = authors.find(author);
+        return id < 0 ? new BitSet() : byAuthor.get(id);
+    }
+
+    public AuthorDictionary authors() {
+        return authors;
+    }
+
+    public CatalogColumns columns() {
+        return columns;
+    }
+
+    // Author id of an indexed row.
+    public int authorId(int row) {
+        return columns.author(row);
+    }
+
+    // Returns the row of the book, or -1 if it is not indexed.
+    public int rowOf(Book book) {
+        Integer row = rowIds.get(book);
+        return row == null ? -1 : row;
+    }
+
+    public Book bookAt(int row) {
+        return rows.get(row);
+    }
+
+    // MODEL: Turns a set of rows back into books, in row order.
+    public List<Book> books(BitSet selected) {
+        List<Book> result = new ArrayList<>(selected.cardinality());
+        for (int row = selected.nextSetBit(0); row >= 0; row = selected.nextSetBit(row + 1)) {
+            result.add(rows.get(row));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,219 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+
+// MODEL: Inverted index over the words of titles and authors, ranked with BM25.
+// Each word keeps a posting list of (row, weighted term frequency) in row
+// order; rows come from the CatalogIndex, so new books are simply appended.
+// Removed rows are remembered in a bitset and skipped while scoring.
+// Title words count twice as much as author words.
+class FullTextIndex {
+    static final float K1 = 1.2f;
+    static final float B = 0.75f;
+    static final int TITLE_WEIGHT = 2;
+    static final int AUTHOR_WEIGHT = 1;
+
+    // Rows and frequencies of one word.
+    private static class Postings {
+        int[] rows = new int[2];
+        short[] freqs = new short[2];
+        int size;
+
+        void add(int row, int freq) {
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, size * 2);
+                freqs = Arrays.copyOf(freqs, size * 2);
+            }
+            rows[size] = row;
+            freqs[size] = (short) Math.min(freq, Short.MAX_VALUE);
+            size++;
+        }
+    }
+
+    private final Map<String, Postings> postings;
+    // The same words in order, for completing a partly typed word.
+    private final NavigableSet<String> vocabulary;
+    private int[] lengths;
+    private final BitSet removed;
+    private int documents;
+    private long totalLength;
+
+    public FullTextIndex() {
+        this.postings = new HashMap<>();
+        this.vocabulary = new TreeSet<>();
+        this.lengths = new int[64];
+        this.removed = new BitSet();
+    }
+
+    // Lower-cases the text and splits it on everything that is not a letter or digit.
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean wordChar = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(lower.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    public void add(int row, Book book) {
+        Map<String, Integer> freqs = new HashMap<>();
+        int length = 0;
+        for (String token : tokenize(book.getDisplayTitle())) {
+            freqs.merge(token, TITLE_WEIGHT, Integer::sum);
+            length += TITLE_WEIGHT;
+        }
+        for (String token : tokenize(book.getAuthor())) {
+            freqs.merge(token, AUTHOR_WEIGHT, Integer::sum);
+            length += AUTHOR_WEIGHT;
+        }
+        for (Map.Entry<String, Integer> entry : freqs.entrySet()) {
+            postings.computeIfAbsent(entry.getKey(), word -> {
+                vocabulary.add(word);
+                return new Postings();
+            }).add(row, entry.getValue());
+        }
+        if (row >= lengths.length) {
+            lengths = Arrays.copyOf(lengths, Math.max(row + 1, lengths.length * 2));
+        }
+        lengths[row] = length;
+        removed.clear(row);
+        documents++;
+        totalLength += length;
+    }
+
+    public void remove(int row) {
+        if (row < 0 || row >= lengths.length || removed.get(row)) {
+            return;
+        }
+        removed.set(row);
+        documents--;
+        totalLength -= lengths[row];
+    }
+
+    // Row with its BM25 score, ordered from best to worst.
+    static class Hit implements Comparable<Hit> {
+        final int row;
+        final float score;
+
+        Hit(int row, float score) {
+            this.row = row;
+            this.score = score;
+        }
+
+        @Override
+        public int compareTo(Hit other) {
+            int byScore = Float.compare(other.score, score);
+            return byScore != 0 ? byScore : Integer.compare(row, other.row);
+        }
+    }
+
+    // MODEL: Scores every row that contains at least one query word and
+    // returns the best limit rows, best first.
+    public List<Hit> search(String text, int limit) {
+        List<Hit> result = new ArrayList<>();
+        if (documents == 0 || limit <= 0) {
+            return result;
+        }
+        float averageLength = (float) totalLength / documents;
+        List<Postings> lists = new ArrayList<>();
+        for (String token : new LinkedHashSet<>(tokenize(text))) {
+            Postings list = postings.get(token);
+            if (list != null) {
+                lists.add(list);
+            }
+        }
+        int terms = lists.size();
+        float[] idfs = new float[terms];
+        for (int t = 0; t < terms; t++) {
+            int df = lists.get(t).size;
+            // Posting lists keep removed rows, so df is an upper bound.
+            idfs[t] = (float) Math.log(1 + (documents - df + 0.5) / (df + 0.5));
+        }
+        // Posting lists are in row order, so they are merged (k-way, one
+        // cursor per query word) and each row is scored completely when the
+        // merge reaches it. Nothing is allocated per indexed row.
+        int[] cursors = new int[terms];
+        // Keeps the limit best hits in a min-heap (worst hit at the head).
+        // Rows come in ascending order, so on equal scores the earlier row
+        // already in the heap wins and only a higher score gets in.
+        PriorityQueue<Hit> best = new PriorityQueue<>(limit + 1, (x, y) -> y.compareTo(x));
+        while (true) {
+            int row = Integer.MAX_VALUE;
+            for (int t = 0; t < terms; t++) {
+                Postings list = lists.get(t);
+                if (cursors[t] < list.size && list.rows[cursors[t]] < row) {
+                    row = list.rows[cursors[t]];
+                }
+            }
+            if (row == Integer.MAX_VALUE) {
+                break;
+            }
+            float score = 0;
+            float norm = K1 * (1 - B + B * lengths[row] / averageLength);
+            for (int t = 0; t < terms; t++) {
+                Postings list = lists.get(t);
+                if (cursors[t] < list.size && list.rows[cursors[t]] == row) {
+                    float freq = list.freqs[cursors[t]++];
+                    score += idfs[t] * freq * (K1 + 1) / (freq + norm);
+                }
+            }
+            if (removed.get(row)) {
+                continue;
+            }
+            if (best.size() < limit) {
+                best.add(new Hit(row, score));
+            } else if (score > best.peek().score) {
+                best.poll();
+                best.add(new Hit(row, score));
+            }
+        }
+        result.addAll(best);
+        result.sort(null);
+        return result;
+    }
+
+    // MODEL: Returns up to limit indexed words that start with prefix, the
+    // ones in most books first. Used to finish the last word while typing.
+    public List<String> completions(String prefix, int limit) {
+        PriorityQueue<String> best = new PriorityQueue<>(limit + 1,
+                (x, y) -> Integer.compare(postings.get(x).size, postings.get(y).size));
+        for (String word : vocabulary.tailSet(prefix, true)) {
+            if (!word.startsWith(prefix)) {
+                break;
+            }
+            best.add(word);
+            if (best.size() > limit) {
+                best.poll();
+            }
+        }
+        List<String> result = new ArrayList<>(best);
+        result.sort((x, y) -> Integer.compare(postings.get(y).size, postings.get(x).size));
+        return result;
+    }
+
+    public int size() {
+        return documents;
+    }
+
+    public int words() {
+        return postings.size();
+    }
+}
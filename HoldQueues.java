@@ -0,0 +1,265 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+// MODEL: Waiting lists for print books that are out, and subscriptions to
+// what happens to a book when it comes back. Each book has its own FIFO
+// queue of patrons, guarded by the queue itself, so holds on different books
+// never wait on each other. AppModel takes the first holder when a copy is
+// returned (see Line) and publishes an event to the book's subscribers, so
+// nobody has to poll the library to see a status change. A queue that runs
+// empty is removed from the map while locked; whoever locks it afterwards
+// sees that it is no longer the book's queue and starts over with a fresh
+// one.
+// Holds are kept in memory only; they are not written to the loan journal.
+class HoldQueues {
+    // MODEL: What happened to a returned copy.
+    static class HoldEvent {
+        enum Kind {
+            // Back on the shelf, anyone may check it out.
+            AVAILABLE,
+            // Lent straight to the first patron waiting for it.
+            LENT_TO_HOLDER
+        }
+
+        private final Kind kind;
+        private final Book book;
+        private final Patron patron;
+
+        HoldEvent(Kind kind, Book book, Patron patron) {
+            this.kind = kind;
+            this.book = book;
+            this.patron = patron;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public Book getBook() {
+            return book;
+        }
+
+        // The new borrower for LENT_TO_HOLDER, otherwise null.
+        public Patron getPatron() {
+            return patron;
+        }
+
+        @Override
+        public String toString() {
+            return kind + " " + book.getFormattedTitle() + (patron == null ? "" : " to " + patron.getId());
+        }
+    }
+
+    // MODEL: One book's waiting line, guarded by itself. Holders passed over
+    // because they were at the borrowing limit move to skipped, which is
+    // ahead of waiting in line order. A hand-off looks at the skipped
+    // holders and then takes the head of waiting, so it costs O(1) plus
+    // the holders at the limit, never a walk of the whole line.
+    private static final class Line {
+        final ArrayDeque<Patron> skipped = new ArrayDeque<>();
+        final ArrayDeque<Patron> waiting = new ArrayDeque<>();
+
+        int size() {
+            return skipped.size() + waiting.size();
+        }
+
+        // Place of the patron (1 = next), or 0.
+        int position(Patron patron) {
+            int place = 1;
+            for (Patron holder : skipped) {
+                if (holder == patron) {
+                    return place;
+                }
+                place++;
+            }
+            for (Patron holder : waiting) {
+                if (holder == patron) {
+                    return place;
+                }
+                place++;
+            }
+            return 0;
+        }
+
+        boolean remove(Patron patron) {
+            return skipped.removeFirstOccurrence(patron) || waiting.removeFirstOccurrence(patron);
+        }
+
+        Patron next(Predicate<Patron> eligible) {
+            for (Iterator<Patron> it = skipped.iterator(); it.hasNext();) {
+                Patron patron = it.next();
+                if (eligible.test(patron)) {
+                    it.remove();
+                    return patron;
+                }
+            }
+            Patron patron;
+            while ((patron = waiting.pollFirst()) != null) {
+                if (eligible.test(patron)) {
+                    return patron;
+                }
+                skipped.addLast(patron);
+            }
+            return null;
+        }
+    }
+
+    // Books compare by identity, so they key these maps directly.
+    private final Map<Book, Line> queues;
+    private final Map<Book, List<Consumer<HoldEvent>>> subscribers;
+
+    public HoldQueues() {
+        this.queues = new ConcurrentHashMap<>();
+        this.subscribers = new ConcurrentHashMap<>();
+    }
+
+    // MODEL: Puts the patron at the end of the book's queue and returns
+    // their place in it (1 = next). A patron already waiting keeps their
+    // place. Returns 0 without queueing when the copy is on the shelf; that
+    // is checked while holding the queue, and AppModel looks at the queue
+    // again after shelving a copy, so a hold is never left waiting on a
+    // copy that is in.
+    public int placeHold(PrintBook book, Patron patron) {
+        while (true) {
+            Line line = queues.computeIfAbsent(book, b -> new Line());
+            synchronized (line) {
+                if (queues.get(book) != line) {
+                    continue;
+                }
+                if (book.getAvailable()) {
+                    dropIfEmpty(book, line);
+                    return 0;
+                }
+                int place = line.position(patron);
+                if (place > 0) {
+                    return place;
+                }
+                line.waiting.addLast(patron);
+                return line.size();
+            }
+        }
+    }
+
+    public boolean cancelHold(Book book, Patron patron) {
+        Line line = queues.get(book);
+        if (line == null) {
+            return false;
+        }
+        synchronized (line) {
+            boolean removed = line.remove(patron);
+            dropIfEmpty(book, line);
+            return removed;
+        }
+    }
+
+    // MODEL: Takes the first patron waiting for the book who is eligible,
+    // or null. Patrons passed over keep their place in the queue.
+    public Patron next(Book book, Predicate<Patron> eligible) {
+        Line line = queues.get(book);
+        if (line == null) {
+            return null;
+        }
+        synchronized (line) {
+            Patron patron = line.next(eligible);
+            dropIfEmpty(book, line);
+            return patron;
+        }
+    }
+
+    // Gives a patron taken with next back their place at the front.
+    public void restore(Book book, Patron patron) {
+        while (true) {
+            Line line = queues.computeIfAbsent(book, b -> new Line());
+            synchronized (line) {
+                if (queues.get(book) != line) {
+                    continue;
+                }
+                line.skipped.addFirst(patron);
+                return;
+            }
+        }
+    }
+
+    // Called with the line locked.
+    private void dropIfEmpty(Book book, Line line) {
+        if (line.size() == 0) {
+            queues.remove(book, line);
+        }
+    }
+
+    public int size(Book book) {
+        Line line = queues.get(book);
+        if (line == null) {
+            return 0;
+        }
+        synchronized (line) {
+            return line.size();
+        }
+    }
+
+    // Place of the patron in the book's queue (1 = next), or 0.
+    public int position(Book book, Patron patron) {
+        Line line = queues.get(book);
+        if (line == null) {
+            return 0;
+        }
+        synchronized (line) {
+            return line.position(patron);
+        }
+    }
+
+    // Books the patron is waiting for.
+    public List<Book> holdsOf(Patron patron) {
+        List<Book> books = new ArrayList<>();
+        for (Map.Entry<Book, Line> entry : queues.entrySet()) {
+            synchronized (entry.getValue()) {
+                if (entry.getValue().position(patron) > 0) {
+                    books.add(entry.getKey());
+                }
+            }
+        }
+        return books;
+    }
+
+    // MODEL: Subscribers are called on the thread that returned the book,
+    // after the change is done; they should hand slow work to another thread.
+    public void subscribe(Book book, Consumer<HoldEvent> subscriber) {
+        subscribers.compute(book, (b, list) -> {
+            if (list == null) {
+                list = new CopyOnWriteArrayList<>();
+            }
+            list.add(subscriber);
+            return list;
+        });
+    }
+
+    // The book's entry goes once its last subscriber leaves.
+    public void unsubscribe(Book book, Consumer<HoldEvent> subscriber) {
+        subscribers.computeIfPresent(book, (b, list) -> {
+            list.remove(subscriber);
+            return list.isEmpty() ? null : list;
+        });
+    }
+
+    public void publish(HoldEvent event) {
+        List<Consumer<HoldEvent>> list = subscribers.get(event.getBook());
+        if (list == null) {
+            return;
+        }
+        for (Consumer<HoldEvent> subscriber : list) {
+            try {
+                subscriber.accept(event);
+            } catch (RuntimeException e) {
+                // One broken subscriber must not undo or block the return.
+                System.out.println("Hold subscriber failed on " + event + ": " + e);
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Load client for LibraryServer. Each client is a patron on its own virtual
+// thread that keeps browsing, searching, checking out and returning books
+// for the given time, then prints throughput and latency per request kind.
+//
+// Usage: LibraryLoadClient [--url=http://localhost:8080] [--clients=1000]
+//                          [--time=10000] [--ids=5000]
+public class LibraryLoadClient {
+    private static final String[] WORDS = { "silent", "river", "shadow", "garden", "iron", "winter", "crown",
+            "glass", "storm", "harbor", "secret", "light", "stone", "forest", "empire", "dream" };
+    private static final Pattern ID = Pattern.compile("\"id\":(\\d+)");
+    private static final Pattern NEXT = Pattern.compile("\"next\":(\\d+)");
+
+    private final HttpClient http;
+    private final String url;
+    private final Map<String, LatencyHistogram> latency = new ConcurrentHashMap<>();
+    private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+    private final LongAdder failures = new LongAdder();
+
+    public LibraryLoadClient(String url, ExecutorService executor) {
+        this.url = url;
+        this.http = HttpClient.newBuilder().executor(executor).connectTimeout(Duration.ofSeconds(10)).build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        String url = "http://localhost:8080";
+        int clients = 1000;
+        long time = 10000;
+        int idCount = 5000;
+        for (String arg : args) {
+            if (arg.startsWith("--url=")) {
+                url = arg.substring("--url=".length());
+            } else if (arg.startsWith("--clients=")) {
+                clients = Integer.parseInt(arg.substring("--clients=".length()));
+            } else if (arg.startsWith("--time=")) {
+                time = Long.parseLong(arg.substring("--time=".length()));
+            } else if (arg.startsWith("--ids=")) {
+                idCount = Integer.parseInt(arg.substring("--ids=".length()));
+            } else {
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+        }
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            LibraryLoadClient client = new LibraryLoadClient(url, executor);
+            int[] ids = client.fetchIds(idCount);
+            System.out.println("Loaded " + ids.length + " book ids, starting " + clients + " clients for "
+                    + time + " ms");
+            long deadline = System.nanoTime() + time * 1_000_000;
+            long start = System.nanoTime();
+            List<Future<?>> running = new ArrayList<>(clients);
+            for (int i = 0; i < clients; i++) {
+                String patron = "load-" + i;
+                running.add(executor.submit(() -> client.run(patron, ids, deadline)));
+            }
+            for (Future<?> future : running) {
+                future.get();
+            }
+            client.report((System.nanoTime() - start) / 1e9);
+        }
+    }
+
+    // Pages through the catalog to learn ids to check out.
+    int[] fetchIds(int count) throws Exception {
+        List<Integer> ids = new ArrayList<>();
+        String after = null;
+        while (ids.size() < count) {
+            String body = get("/books?limit=" + LibraryServer.MAX_PAGE + (after == null ? "" : "&after=" + after),
+                    "page");
+            if (body == null) {
+                break;
+            }
+            Matcher matcher = ID.matcher(body);
+            while (matcher.find() && ids.size() < count) {
+                ids.add(Integer.parseInt(matcher.group(1)));
+            }
+            Matcher next = NEXT.matcher(body);
+            if (!next.find()) {
+                break;
+            }
+            after = next.group(1);
+        }
+        return ids.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    // One patron: mostly reads, with a checkout or return now and then.
+    void run(String patron, int[] ids, long deadline) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<Integer> borrowed = new ArrayList<>();
+        while (System.nanoTime() < deadline) {
+            int dice = random.nextInt(100);
+            try {
+                if (dice < 40) {
+                    Genre genre = Genre.values()[random.nextInt(Genre.values().length)];
+                    get("/books?genre=" + genre + "&limit=20", "browse");
+                } else if (dice < 65) {
+                    get("/search?q=" + WORDS[random.nextInt(WORDS.length)] + "&limit=10", "search");
+                } else if (dice < 80) {
+                    get("/books/" + ids[random.nextInt(ids.length)], "book");
+                } else if (dice < 85) {
+                    get("/patrons/" + patron, "shelf");
+                } else if (dice < 93 || borrowed.isEmpty()) {
+                    int id = ids[random.nextInt(ids.length)];
+                    if (post("/patrons/" + patron + "/checkout?books=" + id, "checkout") == 200) {
+                        borrowed.add(id);
+                    }
+                } else {
+                    int id = borrowed.remove(borrowed.size() - 1);
+                    post("/patrons/" + patron + "/return?books=" + id, "return");
+                }
+            } catch (Exception e) {
+                failures.increment();
+            }
+        }
+    }
+
+    private String get(String path, String kind) throws Exception {
+        HttpResponse<String> response = send(HttpRequest.newBuilder(URI.create(url + path)).GET(), kind);
+        return response.statusCode() == 200 ? response.body() : null;
+    }
+
+    private int post(String path, String kind) throws Exception {
+        return send(HttpRequest.newBuilder(URI.create(url + path)).POST(HttpRequest.BodyPublishers.noBody()), kind)
+                .statusCode();
+    }
+
+    private HttpResponse<String> send(HttpRequest.Builder request, String kind) throws Exception {
+        long start = System.nanoTime();
+        HttpResponse<String> response = http.send(request.timeout(Duration.ofSeconds(30)).build(),
+                HttpResponse.BodyHandlers.ofString());
+        latency.computeIfAbsent(kind, k -> new LatencyHistogram()).record(System.nanoTime() - start);
+        statuses.computeIfAbsent(response.statusCode(), s -> new LongAdder()).increment();
+        return response;
+    }
+
+    void report(double seconds) {
+        long total = 0;
+        System.out.println(String.format("%-10s %10s %10s %10s %10s %10s %10s", "request", "count", "req/s",
+                "mean ms", "p50 ms", "p99 ms", "max ms"));
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(latency).entrySet()) {
+            LatencyHistogram h = entry.getValue();
+            total += h.getCount();
+            System.out.println(String.format("%-10s %10d %10.0f %10.2f %10.2f %10.2f %10.2f", entry.getKey(),
+                    h.getCount(), h.getCount() / seconds, h.getMean() / 1e6, h.getPercentile(50) / 1e6,
+                    h.getPercentile(99) / 1e6, h.getMax() / 1e6));
+        }
+        System.out.println(String.format("total %d requests in %.1f s (%.0f req/s), statuses %s, %d failed",
+                total, seconds, total / seconds, new TreeMap<>(statuses), failures.sum()));
+    }
+}
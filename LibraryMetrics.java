@@ -0,0 +1,196 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// MODEL: Count, error count and latency histogram of every operation the
+// controller delegates to the model. Off by default: a disabled timer is
+// one volatile read and no clock call. When on, it can be watched over JMX
+// (register) and written to a local file every few seconds (startReporter).
+public class LibraryMetrics implements LibraryMetricsMBean {
+    static final String OBJECT_NAME = "library:type=Metrics";
+
+    // MODEL: Numbers of one operation.
+    static class Operation {
+        final LongAdder errors = new LongAdder();
+        final LatencyHistogram latency = new LatencyHistogram();
+    }
+
+    private final Map<String, Operation> operations = new ConcurrentHashMap<>();
+    private volatile boolean enabled;
+    private ScheduledExecutorService reporter;
+
+    public LibraryMetrics() {
+        this(false);
+    }
+
+    public LibraryMetrics(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    // MODEL: Runs call and records how long it took under the name, and
+    // whether it threw. The exception is passed on unchanged.
+    public <T> T time(String name, Supplier<T> call) {
+        if (!enabled) {
+            return call.get();
+        }
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            T result = call.get();
+            failed = false;
+            return result;
+        } finally {
+            record(name, System.nanoTime() - start, failed);
+        }
+    }
+
+    public void time(String name, Runnable call) {
+        if (!enabled) {
+            call.run();
+            return;
+        }
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            call.run();
+            failed = false;
+        } finally {
+            record(name, System.nanoTime() - start, failed);
+        }
+    }
+
+    public void record(String name, long nanos, boolean failed) {
+        Operation operation = operations.computeIfAbsent(name, n -> new Operation());
+        operation.latency.record(nanos);
+        if (failed) {
+            operation.errors.increment();
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public String[] getOperations() {
+        return new TreeMap<>(operations).keySet().toArray(new String[0]);
+    }
+
+    @Override
+    public long getCount(String name) {
+        Operation operation = operations.get(name);
+        return operation == null ? 0 : operation.latency.getCount();
+    }
+
+    @Override
+    public long getErrors(String name) {
+        Operation operation = operations.get(name);
+        return operation == null ? 0 : operation.errors.sum();
+    }
+
+    @Override
+    public double getMeanMillis(String name) {
+        Operation operation = operations.get(name);
+        return operation == null ? 0 : operation.latency.getMean() / 1e6;
+    }
+
+    @Override
+    public double getPercentileMillis(String name, double percentile) {
+        Operation operation = operations.get(name);
+        return operation == null ? 0 : operation.latency.getPercentile(percentile) / 1e6;
+    }
+
+    @Override
+    public double getMaxMillis(String name) {
+        Operation operation = operations.get(name);
+        return operation == null ? 0 : operation.latency.getMax() / 1e6;
+    }
+
+    // MODEL: One line per operation, sorted by name.
+    @Override
+    public String getReport() {
+        StringBuilder report = new StringBuilder(String.format("%-28s %10s %8s %10s %10s %10s %10s %10s%n",
+                "operation", "count", "errors", "mean ms", "p50 ms", "p99 ms", "p99.9 ms", "max ms"));
+        for (Map.Entry<String, Operation> entry : new TreeMap<>(operations).entrySet()) {
+            LatencyHistogram latency = entry.getValue().latency;
+            report.append(String.format("%-28s %10d %8d %10.3f %10.3f %10.3f %10.3f %10.3f%n", entry.getKey(),
+                    latency.getCount(), entry.getValue().errors.sum(), latency.getMean() / 1e6,
+                    latency.getPercentile(50) / 1e6, latency.getPercentile(99) / 1e6,
+                    latency.getPercentile(99.9) / 1e6, latency.getMax() / 1e6));
+        }
+        return report.toString();
+    }
+
+    @Override
+    public void reset() {
+        operations.clear();
+    }
+
+    // MODEL: Makes these metrics visible to JMX clients under OBJECT_NAME,
+    // replacing metrics registered there before.
+    public ObjectName register() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+        server.registerMBean(this, name);
+        return name;
+    }
+
+    // MODEL: Rewrites file with the report every period on a daemon thread.
+    // The file is replaced in one move, so a reader never sees half a report.
+    public synchronized void startReporter(Path file, long period, TimeUnit unit) {
+        stopReporter();
+        reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "library-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> {
+            try {
+                writeReport(file);
+            } catch (IOException e) {
+                System.out.println("Could not write metrics to " + file + ": " + e.getMessage());
+            }
+        }, period, period, unit);
+    }
+
+    public synchronized void stopReporter() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+    }
+
+    public void writeReport(Path file) throws IOException {
+        Path absolute = file.toAbsolutePath();
+        Path temp = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+        Files.write(temp, getReport().getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public String toString() {
+        return "LibraryMetrics: " + (enabled ? "enabled" : "disabled") + ", " + operations.size() + " operations";
+    }
+}
@@ -0,0 +1,23 @@
+// MODEL: Management interface of LibraryMetrics, for jconsole and other
+// JMX clients. Times are in milliseconds.
+public interface LibraryMetricsMBean {
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    String[] getOperations();
+
+    long getCount(String operation);
+
+    long getErrors(String operation);
+
+    double getMeanMillis(String operation);
+
+    double getPercentileMillis(String operation, double percentile);
+
+    double getMaxMillis(String operation);
+
+    String getReport();
+
+    void reset();
+}
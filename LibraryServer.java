@@ -0,0 +1,455 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import javafx.collections.FXCollections;
+
+// CONTROLLER: Serves the controller's operations over HTTP as JSON, so one
+// library can serve many patrons at once. Runs without the JavaFX toolkit:
+// the model only needs observable lists, and async results are delivered on
+// the calling thread. Every request gets its own virtual thread; the model is
+// already safe to call from many threads.
+//
+//   GET  /books?type=&genre=&author=&status=&order=&after=&limit=
+//                                  one page of books in title, author or genre order
+//   GET  /books/{id}               one book
+//   GET  /books/{id}/wait?timeout=ms
+//                                  waits for a returned copy of the book to go
+//                                  back on the shelf or to a holder
+//   GET  /search?q=&limit=         ranked word search
+//   GET  /titles?prefix=&limit=    title prefix lookup
+//   GET  /patrons/{id}             the patron's borrowed, downloaded and held books
+//   POST /patrons/{id}/checkout?books=1,2   all or nothing, within the limit
+//   POST /patrons/{id}/return?books=1,2
+//   POST /patrons/{id}/holds?book=1       queue for a print book that is out
+//   DELETE /patrons/{id}/holds?book=1
+//   GET  /metrics                  latency report, see LibraryMetrics
+//
+// Books are identified by their library id (Library.getBookId). The "next"
+// of a page is the id to pass as "after" for the following page.
+public class LibraryServer {
+    static final int MAX_PAGE = 500;
+    // Longest a GET /books/{id}/wait may block.
+    static final long MAX_WAIT_MILLIS = 60_000;
+
+    private final AppController controller;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    public LibraryServer(AppController controller, InetSocketAddress address) throws IOException {
+        this.controller = controller;
+        // A deep accept backlog, so bursts of connections are queued, not refused.
+        this.server = HttpServer.create(address, 4096);
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        this.server.setExecutor(executor);
+        this.server.createContext("/", this::handle);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    // Thrown by the handlers to answer with an error status.
+    static class HttpError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        HttpError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        int status = 200;
+        String body;
+        String type = "application/json";
+        try {
+            String[] path = exchange.getRequestURI().getPath().split("/");
+            Map<String, String> params = params(exchange.getRequestURI().getRawQuery());
+            String method = exchange.getRequestMethod();
+            String resource = path.length > 1 ? path[1] : "";
+            if (resource.equals("books") && path.length == 2) {
+                require(method, "GET");
+                body = books(params);
+            } else if (resource.equals("books") && path.length == 3) {
+                require(method, "GET");
+                body = book(bookById(path[2]));
+            } else if (resource.equals("books") && path.length == 4 && path[3].equals("wait")) {
+                require(method, "GET");
+                body = waitForReturn(bookById(path[2]), params);
+            } else if (resource.equals("search") && path.length == 2) {
+                require(method, "GET");
+                body = bookList(controller.search(required(params, "q"), limit(params, 20)));
+            } else if (resource.equals("titles") && path.length == 2) {
+                require(method, "GET");
+                body = bookList(controller.getBooksByTitlePrefix(required(params, "prefix"), limit(params, 20)));
+            } else if (resource.equals("patrons") && path.length == 3) {
+                require(method, "GET");
+                body = shelf(controller.getPatron(path[2]));
+            } else if (resource.equals("patrons") && path.length == 4 && path[3].equals("checkout")) {
+                require(method, "POST");
+                List<Book> cart = booksByIds(required(params, "books"));
+                if (!controller.checkoutBooks(path[2], cart)) {
+                    throw new HttpError(409, "Not available or over the limit of " + AppModel.MAX_BORROWED);
+                }
+                body = shelf(controller.getPatron(path[2]));
+            } else if (resource.equals("patrons") && path.length == 4 && path[3].equals("return")) {
+                require(method, "POST");
+                controller.returnBooks(path[2], booksByIds(required(params, "books")));
+                body = shelf(controller.getPatron(path[2]));
+            } else if (resource.equals("patrons") && path.length == 4 && path[3].equals("holds")) {
+                body = hold(method, path[2], bookById(required(params, "book")));
+            } else if (resource.equals("metrics") && path.length == 2) {
+                require(method, "GET");
+                body = controller.getMetrics().getReport();
+                type = "text/plain";
+            } else {
+                throw new HttpError(404, "No such resource: " + exchange.getRequestURI().getPath());
+            }
+        } catch (HttpError e) {
+            status = e.status;
+            body = error(e.getMessage());
+        } catch (IllegalArgumentException e) {
+            status = 400;
+            body = error(e.getMessage());
+        } catch (RuntimeException e) {
+            status = 500;
+            body = error(e.toString());
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", type + "; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static void require(String method, String expected) {
+        if (!method.equals(expected)) {
+            throw new HttpError(405, "Use " + expected);
+        }
+    }
+
+    // CONTROLLER: One page of the filtered catalog.
+    private String books(Map<String, String> params) {
+        BookQuery query = new BookQuery();
+        String type = params.get("type");
+        if ("print".equals(type)) {
+            query.type(PrintBook.class);
+        } else if ("digital".equals(type)) {
+            query.type(DigitalBook.class);
+        } else if (type != null) {
+            throw new HttpError(400, "type must be print or digital");
+        }
+        if (params.containsKey("genre")) {
+            query.genre(Genre.valueOf(params.get("genre").toUpperCase(Locale.ROOT)));
+        }
+        if (params.containsKey("status")) {
+            query.status(Status.valueOf(params.get("status").toUpperCase(Locale.ROOT)));
+        }
+        query.author(params.get("author"));
+        BookOrder order = BookOrder.valueOf(params.getOrDefault("order", "title").toUpperCase(Locale.ROOT));
+        BookPage.Cursor after = null;
+        if (params.containsKey("after")) {
+            after = controller.getLibrary().cursorAt(order, id(params.get("after")));
+            if (after == null) {
+                throw new HttpError(410, "The book the page continued from was removed");
+            }
+        }
+        BookPage page = controller.page(query, order, after, limit(params, 50));
+        Library library = controller.getLibrary();
+        StringBuilder json = new StringBuilder("{\"books\":");
+        appendBooks(json, page.getBooks());
+        json.append(",\"next\":");
+        if (page.hasNext()) {
+            json.append(library.getBookId(page.getBooks().get(page.getBooks().size() - 1)));
+        } else {
+            json.append("null");
+        }
+        return json.append('}').toString();
+    }
+
+    // CONTROLLER: Places or cancels a hold and answers with the patron's
+    // place in the queue (0 once cancelled).
+    private String hold(String method, String patronId, Book book) {
+        if (method.equals("POST")) {
+            int position = controller.placeHold(patronId, book);
+            if (position < 0) {
+                throw new HttpError(400, "Only print books the patron does not have can be held");
+            }
+            if (position == 0) {
+                throw new HttpError(409, "Available, check it out instead");
+            }
+        } else {
+            require(method, "DELETE");
+            if (!controller.cancelHold(patronId, book)) {
+                throw new HttpError(404, "No hold on book " + controller.getLibrary().getBookId(book));
+            }
+        }
+        StringBuilder json = new StringBuilder("{\"book\":");
+        json.append(controller.getLibrary().getBookId(book));
+        json.append(",\"position\":").append(controller.getHoldPosition(patronId, book));
+        return json.append('}').toString();
+    }
+
+    // CONTROLLER: Long poll for the next hold event of the book, so clients
+    // do not have to poll its status. Blocks only this request's virtual
+    // thread; answers {"event":null} when nothing happened within timeout.
+    private String waitForReturn(Book book, Map<String, String> params) {
+        String value = params.get("timeout");
+        long timeout = value == null ? MAX_WAIT_MILLIS : id(value);
+        if (timeout <= 0 || timeout > MAX_WAIT_MILLIS) {
+            throw new HttpError(400, "timeout must be between 1 and " + MAX_WAIT_MILLIS);
+        }
+        CompletableFuture<HoldQueues.HoldEvent> next = new CompletableFuture<>();
+        Consumer<HoldQueues.HoldEvent> subscriber = next::complete;
+        controller.subscribe(book, subscriber);
+        HoldQueues.HoldEvent event;
+        try {
+            event = next.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            event = null;
+        } catch (InterruptedException e) {
+            // The server is stopping; keep the flag for the request thread.
+            Thread.currentThread().interrupt();
+            throw new HttpError(503, "Wait interrupted");
+        } catch (ExecutionException e) {
+            throw new HttpError(500, "Wait failed: " + e.getCause());
+        } finally {
+            controller.unsubscribe(book, subscriber);
+        }
+        StringBuilder json = new StringBuilder("{\"event\":");
+        if (event == null) {
+            return json.append("null}").toString();
+        }
+        quote(json, event.getKind().name());
+        json.append(",\"book\":");
+        appendBook(json, event.getBook(), controller.getLibrary().getBookId(event.getBook()));
+        json.append(",\"patron\":");
+        quote(json, event.getPatron() == null ? null : event.getPatron().getId());
+        return json.append('}').toString();
+    }
+
+    private Book bookById(String id) {
+        Book book = controller.getLibrary().getBookById(id(id));
+        if (book == null) {
+            throw new HttpError(404, "No book with id " + id);
+        }
+        return book;
+    }
+
+    private List<Book> booksByIds(String ids) {
+        List<Book> books = new ArrayList<>();
+        for (String id : ids.split(",")) {
+            books.add(bookById(id.trim()));
+        }
+        return books;
+    }
+
+    private String shelf(Patron patron) {
+        StringBuilder json = new StringBuilder("{\"patron\":");
+        quote(json, patron.getId());
+        json.append(",\"borrowed\":");
+        appendBooks(json, patron.getBorrowedBooks());
+        json.append(",\"downloaded\":");
+        appendBooks(json, patron.getDownloadedBooks());
+        json.append(",\"holds\":");
+        appendBooks(json, controller.getHolds(patron.getId()));
+        return json.append('}').toString();
+    }
+
+    private String bookList(List<Book> books) {
+        StringBuilder json = new StringBuilder();
+        appendBooks(json, books);
+        return json.toString();
+    }
+
+    private String book(Book book) {
+        StringBuilder json = new StringBuilder();
+        appendBook(json, book, controller.getLibrary().getBookId(book));
+        return json.toString();
+    }
+
+    private void appendBooks(StringBuilder json, List<Book> books) {
+        Library library = controller.getLibrary();
+        json.append('[');
+        for (int i = 0; i < books.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            appendBook(json, books.get(i), library.getBookId(books.get(i)));
+        }
+        json.append(']');
+    }
+
+    private static void appendBook(StringBuilder json, Book book, int id) {
+        json.append("{\"id\":").append(id).append(",\"title\":");
+        quote(json, book.getDisplayTitle());
+        json.append(",\"author\":");
+        quote(json, book.getAuthor());
+        json.append(",\"type\":\"").append(book instanceof PrintBook ? "print" : "digital");
+        json.append("\",\"genre\":");
+        quote(json, book.getGenre() == null ? null : book.getGenre().name());
+        json.append(",\"status\":");
+        quote(json, book.getStatus() == null ? null : book.getStatus().name());
+        json.append(",\"pages\":").append(book.getPageCount()).append('}');
+    }
+
+    private static String error(String message) {
+        StringBuilder json = new StringBuilder("{\"error\":");
+        quote(json, message);
+        return json.append('}').toString();
+    }
+
+    static void quote(StringBuilder json, String value) {
+        if (value == null) {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+
+    private static Map<String, String> params(String query) {
+        Map<String, String> params = new HashMap<>();
+        if (query == null || query.isEmpty()) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            params.put(URLDecoder.decode(name, StandardCharsets.UTF_8),
+                    URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    private static String required(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if (value == null) {
+            throw new HttpError(400, "Missing parameter " + name);
+        }
+        return value;
+    }
+
+    private static int limit(Map<String, String> params, int fallback) {
+        String value = params.get("limit");
+        int limit = value == null ? fallback : id(value);
+        if (limit <= 0 || limit > MAX_PAGE) {
+            throw new HttpError(400, "limit must be between 1 and " + MAX_PAGE);
+        }
+        return limit;
+    }
+
+    private static int id(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new HttpError(400, "Not a number: " + value);
+        }
+    }
+
+    // Usage: LibraryServer [--port=8080] [--catalog=<file>|--books=<n>]
+    //                      [--journal=<dir>] [--metrics=<file>]
+    public static void main(String[] args) throws Exception {
+        int port = 8080;
+        String catalog = null;
+        int generated = 0;
+        String journalDir = null;
+        String metricsFile = null;
+        for (String arg : args) {
+            if (arg.startsWith("--port=")) {
+                port = Integer.parseInt(arg.substring("--port=".length()));
+            } else if (arg.startsWith("--catalog=")) {
+                catalog = arg.substring("--catalog=".length());
+            } else if (arg.startsWith("--books=")) {
+                generated = Integer.parseInt(arg.substring("--books=".length()));
+            } else if (arg.startsWith("--journal=")) {
+                journalDir = arg.substring("--journal=".length());
+            } else if (arg.startsWith("--metrics=")) {
+                metricsFile = arg.substring("--metrics=".length());
+            } else {
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+        }
+        Library library;
+        if (catalog != null) {
+            library = new Library(CatalogFile.open(Paths.get(catalog)));
+        } else if (generated > 0) {
+            library = new Library(FXCollections.observableArrayList(new CatalogGenerator(42).generate(generated)));
+        } else {
+            library = new Library(FXCollections.observableArrayList(Booklist.list));
+        }
+        AppModel model = new AppModel(library);
+        if (journalDir != null) {
+            LoanJournal journal = LoanJournal.open(Paths.get(journalDir));
+            model.recover(journal);
+            System.out.println(journal);
+        }
+        // Results of the *Async methods stay on the calling thread: there is no FX thread.
+        AppController controller = new AppController(model, Runnable::run);
+        LibraryMetrics metrics = controller.getMetrics();
+        metrics.setEnabled(true);
+        metrics.register();
+        if (metricsFile != null) {
+            metrics.startReporter(Paths.get(metricsFile), 10, TimeUnit.SECONDS);
+        }
+        LibraryServer server = new LibraryServer(controller, new InetSocketAddress(port));
+        server.start();
+        System.out.println("Serving " + library.libraryProperty().size() + " books on http://localhost:" + server.getPort() + "/");
+    }
+}
@@ -0,0 +1,81 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// MODEL: A set of changes to a Library that is published at once.
+// Status changes, added and removed books are only collected until commit.
+// Commit applies them all while holding the library's write lock, so
+// queries see the library either before or after the whole set, and then
+// each live view publishes a single list change for everything it gained
+// or lost, instead of one per book. Typical users are a return sweep or a
+// shipment marked available. A transaction is used by one thread and is
+// finished by commit or rollback.
+class LibraryTransaction {
+    private final Library library;
+    // Last status asked for each book, in the order first asked (books
+    // compare by identity).
+    private final Map<Book, Status> statuses;
+    private final List<Book> added;
+    private final List<Book> removed;
+    private boolean finished;
+
+    LibraryTransaction(Library library) {
+        this.library = library;
+        this.statuses = new LinkedHashMap<>();
+        this.added = new ArrayList<>();
+        this.removed = new ArrayList<>();
+    }
+
+    // Setting AVAILABLE on a print book also puts the copy back into
+    // circulation at commit (see PrintBook.release).
+    public LibraryTransaction setStatus(Book book, Status status) {
+        checkOpen();
+        statuses.put(book, status);
+        return this;
+    }
+
+    public LibraryTransaction addBook(Book book) {
+        checkOpen();
+        added.add(book);
+        return this;
+    }
+
+    public LibraryTransaction removeBook(Book book) {
+        checkOpen();
+        removed.add(book);
+        return this;
+    }
+
+    public int size() {
+        return statuses.size() + added.size() + removed.size();
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    // MODEL: Applies and publishes every collected change.
+    public void commit() {
+        checkOpen();
+        finished = true;
+        if (!isEmpty()) {
+            library.commit(statuses, added, removed);
+        }
+    }
+
+    // MODEL: Drops the collected changes; nothing was applied yet.
+    public void rollback() {
+        checkOpen();
+        finished = true;
+        statuses.clear();
+        added.clear();
+        removed.clear();
+    }
+
+    private void checkOpen() {
+        if (finished) {
+            throw new IllegalStateException("Transaction already committed or rolled back");
+        }
+    }
+}
@@ -0,0 +1,277 @@
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.Predicate;
+import javafx.collections.ObservableList;
+import javafx.collections.ObservableListBase;
+
+// MODEL: A filtered and sorted view over a Library that stays current.
+// It is filled once from the indexes, then the Library tells it about every
+// added, removed or status-changed book, and only that row is inserted or
+// removed (binary search on the sort order). A TableView can be bound to
+// libraryProperty() once instead of receiving a new Library per filter.
+// Every change reaches listeners as the rows actually added and removed,
+// never as a reset, so a bound TableView keeps its selection and scroll
+// position. During a LibraryTransaction the changes are held back and
+// published together as one list change when the transaction commits.
+class LiveLibraryView {
+    // The shown books. Read-only to listeners; changed only by the view,
+    // which reports every change as granular adds and removes. Changes
+    // between begin and end are published as one list change.
+    private static class Rows extends ObservableListBase<Book> implements RandomAccess {
+        private final ArrayList<Book> list;
+
+        Rows(List<Book> initial, Comparator<Book> order) {
+            this.list = new ArrayList<>(initial);
+            this.list.sort(order);
+        }
+
+        @Override
+        public Book get(int index) {
+            return list.get(index);
+        }
+
+        @Override
+        public int size() {
+            return list.size();
+        }
+
+        void begin() {
+            beginChange();
+        }
+
+        void end() {
+            endChange();
+        }
+
+        void insert(int index, Book book) {
+            beginChange();
+            list.add(index, book);
+            nextAdd(index, index + 1);
+            endChange();
+        }
+
+        void delete(int index) {
+            beginChange();
+            nextRemove(index, list.remove(index));
+            endChange();
+        }
+
+        // Removes the leaving books in one pass over the list.
+        void deleteIf(Predicate<Book> leaving) {
+            beginChange();
+            int kept = 0;
+            for (int i = 0; i < list.size(); i++) {
+                Book book = list.get(i);
+                if (leaving.test(book)) {
+                    // Earlier removals already shifted it down to kept.
+                    nextRemove(kept, book);
+                } else {
+                    list.set(kept++, book);
+                }
+            }
+            list.subList(kept, list.size()).clear();
+            endChange();
+        }
+
+        // Merges sorted new books into the list in place, from the back,
+        // then reports each run of new books as one add.
+        void merge(List<Book> entering, Comparator<Book> order) {
+            int[] positions = new int[entering.size()];
+            int i = list.size() - 1;
+            int j = entering.size() - 1;
+            list.addAll(Collections.nCopies(entering.size(), null));
+            for (int w = list.size() - 1; j >= 0; w--) {
+                if (i >= 0 && order.compare(list.get(i), entering.get(j)) > 0) {
+                    list.set(w, list.get(i--));
+                } else {
+                    list.set(w, entering.get(j));
+                    positions[j--] = w;
+                }
+            }
+            beginChange();
+            for (int k = 0; k < positions.length;) {
+                int from = positions[k];
+                int to = from + 1;
+                while (++k < positions.length && positions[k] == to) {
+                    to++;
+                }
+                nextAdd(from, to);
+            }
+            endChange();
+        }
+    }
+
+    private final Library library;
+    private final BookQuery query;
+    private final Comparator<Book> order;
+    private final Rows books;
+    // Rows currently shown, so membership checks do not search the list.
+    private final BitSet members;
+
+    LiveLibraryView(Library library, BookQuery query, Comparator<Book> order) {
+        this.library = library;
+        this.query = query;
+        // Ties are broken by catalog row so every book has one fixed position.
+        Comparator<Book> byRow = Comparator.comparingInt(library::rowOf);
+        this.order = order == null ? byRow : order.thenComparing(byRow);
+        this.members = new BitSet();
+
+        // The query result is shared with the cache; the rows are a sorted copy.
+        this.books = new Rows(library.query(query), this.order);
+        for (Book book : books) {
+            members.set(library.rowOf(book));
+        }
+    }
+
+    public BookQuery getQuery() {
+        return query;
+    }
+
+    public ObservableList<Book> libraryProperty() {
+        // MODEL: Returns observable collection for view Binding
+        // Read-only: sorting by a column header would break the insert positions.
+        return books;
+    }
+
+    public int size() {
+        return books.size();
+    }
+
+    // MODEL: Stops following the library.
+    public void dispose() {
+        library.removeView(this);
+    }
+
+    // Called by Library (under its write lock) before a batch of changes.
+    void beginBatch() {
+        books.begin();
+    }
+
+    // Publishes everything the batch changed as one list change.
+    void endBatch() {
+        books.end();
+    }
+
+    // Called by Library after the indexes have been updated.
+    void booksAdded(List<? extends Book> added) {
+        List<Book> matching = new ArrayList<>();
+        for (Book book : added) {
+            if (query.matches(book)) {
+                matching.add(book);
+            }
+        }
+        if (matching.isEmpty()) {
+            return;
+        }
+        for (Book book : matching) {
+            members.set(library.rowOf(book));
+        }
+        if (matching.size() == 1) {
+            insert(matching.get(0));
+            return;
+        }
+        matching.sort(order);
+        books.merge(matching, order);
+    }
+
+    // Called by Library before the row of the book is released.
+    void bookRemoved(Book book) {
+        int row = library.rowOf(book);
+        if (row >= 0 && members.get(row)) {
+            members.clear(row);
+            remove(book);
+        }
+    }
+
+    // Called by Library when the status of several indexed books changed.
+    // Many changes are applied in one pass over the list instead of moving
+    // rows one at a time.
+    void booksChanged(List<Book> changed) {
+        if (changed.size() < 8) {
+            for (Book book : changed) {
+                bookChanged(book);
+            }
+            return;
+        }
+        List<Book> entering = new ArrayList<>();
+        boolean leaving = false;
+        for (Book book : changed) {
+            int row = library.rowOf(book);
+            if (row < 0) {
+                continue;
+            }
+            boolean shown = members.get(row);
+            boolean matches = query.matches(book);
+            if (matches && !shown) {
+                members.set(row);
+                entering.add(book);
+            } else if (!matches && shown) {
+                members.clear(row);
+                leaving = true;
+            }
+        }
+        books.begin();
+        try {
+            if (leaving) {
+                books.deleteIf(book -> {
+                    int row = library.rowOf(book);
+                    return row < 0 || !members.get(row);
+                });
+            }
+            if (!entering.isEmpty()) {
+                entering.sort(order);
+                books.merge(entering, order);
+            }
+        } finally {
+            books.end();
+        }
+    }
+
+    // Called by Library when the status of an indexed book changes.
+    void bookChanged(Book book) {
+        int row = library.rowOf(book);
+        if (row < 0) {
+            return;
+        }
+        boolean shown = members.get(row);
+        boolean matches = query.matches(book);
+        if (matches && !shown) {
+            members.set(row);
+            insert(book);
+        } else if (!matches && shown) {
+            members.clear(row);
+            remove(book);
+        }
+    }
+
+    private void insert(Book book) {
+        int position = Collections.binarySearch(books, book, order);
+        if (position < 0) {
+            books.insert(-position - 1, book);
+        }
+    }
+
+    private void remove(Book book) {
+        int position = Collections.binarySearch(books, book, order);
+        if (position < 0) {
+            // An edited book no longer sorts where it is shown.
+            position = indexOf(book);
+        }
+        if (position >= 0) {
+            books.delete(position);
+        }
+    }
+
+    private int indexOf(Book book) {
+        for (int i = 0; i < books.size(); i++) {
+            if (books.get(i) == book) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,426 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+// MODEL: Write-ahead log of checkouts, downloads and returns.
+// A change is appended before it is applied to the model, and append only
+// returns once the record is on disk. A single writer thread does the disk
+// work: records that arrive while it is syncing are written and synced
+// together with the next fsync (group commit).
+// The writer also replays its records into the set of open loans; every
+// snapshotInterval records it saves that set to a snapshot and empties the
+// log, so recovery reads one snapshot plus a short log tail.
+//
+// Log record:  int length, int crc32, then length bytes of
+//              long seq, byte op, UTF patron, UTF title, UTF author
+// Snapshot:    int magic, int version, long seq, int count,
+//              count entries of byte op, UTF patron, UTF title, UTF author,
+//              then int crc32 of everything before it
+class LoanJournal implements Closeable {
+    static final byte CHECKOUT = 1;
+    static final byte RETURN = 2;
+    static final byte DOWNLOAD = 3;
+
+    static final int SNAPSHOT_MAGIC = 0x4C4E534E; // "LNSN"
+    static final int SNAPSHOT_VERSION = 1;
+    static final String LOG_FILE = "loans.log";
+    static final String SNAPSHOT_FILE = "loans.snapshot";
+
+    // One open loan or download, identified by title and author since
+    // books have no stable id across catalogs.
+    static class Entry {
+        final byte op;
+        final String patron;
+        final String title;
+        final String author;
+
+        Entry(byte op, String patron, String title, String author) {
+            this.op = op;
+            this.patron = patron;
+            this.title = title;
+            this.author = author;
+        }
+
+        Entry(byte op, String patron, Book book) {
+            this(op, patron, book.getDisplayTitle(), book.getAuthor());
+        }
+
+        boolean sameBook(Entry other) {
+            return patron.equals(other.patron) && title.equals(other.title) && author.equals(other.author);
+        }
+
+        public String toString() {
+            return (op == CHECKOUT ? "checkout " : op == RETURN ? "return " : "download ") + patron + ": " + title
+                    + " by " + author;
+        }
+    }
+
+    private final Path directory;
+    private final Path logPath;
+    private final Path snapshotPath;
+    private final FileChannel log;
+    // Open loans and downloads per patron, as of the last durable record.
+    // Changed only by the writer thread after open; guarded by itself.
+    private final Map<String, List<Entry>> open;
+    private final Thread writer;
+
+    // Guarded by this.
+    private ByteArrayOutputStream pending;
+    private long lastSeq;
+    private long durableSeq;
+    private final List<Entry> pendingEntries;
+    private IOException failure;
+    private boolean closed;
+
+    private int snapshotInterval;
+    private long snapshotSeq;
+    private int sinceSnapshot;
+    private long syncs;
+
+    private LoanJournal(Path directory) throws IOException {
+        this.directory = directory;
+        this.logPath = directory.resolve(LOG_FILE);
+        this.snapshotPath = directory.resolve(SNAPSHOT_FILE);
+        this.open = new LinkedHashMap<>();
+        this.pending = new ByteArrayOutputStream();
+        this.pendingEntries = new ArrayList<>();
+        this.snapshotInterval = 10_000;
+
+        readSnapshot();
+        this.log = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        replayLog();
+        this.durableSeq = lastSeq;
+
+        this.writer = new Thread(this::writeLoop, "loan-journal");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    // MODEL: Opens (or creates) the journal in directory and recovers the open
+    // loans from the snapshot and the log tail. A torn record at the end of the
+    // log, left by a crash in the middle of a write, is cut off.
+    public static LoanJournal open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        return new LoanJournal(directory);
+    }
+
+    public synchronized void setSnapshotInterval(int records) {
+        this.snapshotInterval = Math.max(1, records);
+    }
+
+    // MODEL: The open loans and downloads as of the last durable record, in
+    // the order they were made. Right after open, this is what was recovered.
+    public List<Entry> recovered() {
+        synchronized (open) {
+            List<Entry> result = new ArrayList<>();
+            for (List<Entry> entries : open.values()) {
+                result.addAll(entries);
+            }
+            return result;
+        }
+    }
+
+    // MODEL: Appends a record and waits until it is on disk.
+    public void append(byte op, String patron, Book book) throws IOException {
+        appendAll(Collections.singletonList(new Entry(op, patron, book)));
+    }
+
+    // MODEL: Appends several records and waits until all are on disk.
+    // They go into the same batch, so they cost one fsync together.
+    public void appendAll(List<Entry> entries) throws IOException {
+        if (entries.isEmpty()) {
+            return;
+        }
+        long seq;
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("Loan journal is closed");
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            DataOutputStream out = new DataOutputStream(pending);
+            for (Entry entry : entries) {
+                writeRecord(out, ++lastSeq, entry);
+            }
+            seq = lastSeq;
+            pendingEntries.addAll(entries);
+            notifyAll();
+            // Wait for the writer; later appenders share the same fsync.
+            // The record is queued and will be written, so an interrupt
+            // cannot undo it: keep waiting and restore the flag afterwards.
+            boolean interrupted = false;
+            while (durableSeq < seq && failure == null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (durableSeq < seq) {
+                throw failure;
+            }
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, long seq, Entry entry) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(64);
+        DataOutputStream data = new DataOutputStream(body);
+        data.writeLong(seq);
+        data.writeByte(entry.op);
+        data.writeUTF(entry.patron);
+        data.writeUTF(entry.title);
+        data.writeUTF(entry.author);
+        CRC32 crc = new CRC32();
+        crc.update(body.toByteArray());
+        out.writeInt(body.size());
+        out.writeInt((int) crc.getValue());
+        body.writeTo(out);
+    }
+
+    private void writeLoop() {
+        while (true) {
+            byte[] batch;
+            List<Entry> entries;
+            long batchSeq;
+            boolean snapshot;
+            synchronized (this) {
+                while (pending.size() == 0 && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (pending.size() == 0) {
+                    return;
+                }
+                batch = pending.toByteArray();
+                pending = new ByteArrayOutputStream();
+                entries = new ArrayList<>(pendingEntries);
+                pendingEntries.clear();
+                batchSeq = lastSeq;
+                sinceSnapshot += entries.size();
+                snapshot = sinceSnapshot >= snapshotInterval;
+            }
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(batch);
+                while (buffer.hasRemaining()) {
+                    log.write(buffer);
+                }
+                log.force(false);
+                synchronized (open) {
+                    for (Entry entry : entries) {
+                        apply(entry);
+                    }
+                }
+                synchronized (this) {
+                    durableSeq = batchSeq;
+                    syncs++;
+                    notifyAll();
+                }
+                if (snapshot) {
+                    // Every record up to batchSeq is in open and on disk,
+                    // and nothing newer is in the log yet. The log is only
+                    // emptied once the snapshot's rename is durable too.
+                    writeSnapshot(batchSeq);
+                    syncDirectory();
+                    log.truncate(0);
+                    log.position(0);
+                    log.force(true);
+                    synchronized (this) {
+                        snapshotSeq = batchSeq;
+                        sinceSnapshot = 0;
+                    }
+                }
+            } catch (IOException e) {
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    private void apply(Entry entry) {
+        if (entry.op == RETURN) {
+            List<Entry> entries = open.get(entry.patron);
+            if (entries == null) {
+                return;
+            }
+            for (Iterator<Entry> it = entries.iterator(); it.hasNext();) {
+                Entry loan = it.next();
+                if (loan.op == CHECKOUT && loan.sameBook(entry)) {
+                    it.remove();
+                    break;
+                }
+            }
+            if (entries.isEmpty()) {
+                open.remove(entry.patron);
+            }
+        } else {
+            open.computeIfAbsent(entry.patron, key -> new ArrayList<>()).add(entry);
+        }
+    }
+
+    private void writeSnapshot(long seq) throws IOException {
+        Path temp = snapshotPath.resolveSibling(SNAPSHOT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream stream = new BufferedOutputStream(Channels.newOutputStream(channel));
+            CheckedOutputStream checked = new CheckedOutputStream(stream, new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            List<Entry> entries = recovered();
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(seq);
+            out.writeInt(entries.size());
+            for (Entry entry : entries) {
+                out.writeByte(entry.op);
+                out.writeUTF(entry.patron);
+                out.writeUTF(entry.title);
+                out.writeUTF(entry.author);
+            }
+            out.flush();
+            new DataOutputStream(stream).writeInt((int) checked.getChecksum().getValue());
+            stream.flush();
+            channel.force(true);
+        }
+        Files.move(temp, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // A rename lives in the directory, not in the file: until the directory
+    // is synced, a crash can bring the old snapshot back while the log it
+    // covered is already gone.
+    private void syncDirectory() throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (AccessDeniedException e) {
+            // Windows cannot open a directory; NTFS logs the rename itself.
+        }
+    }
+
+    private void readSnapshot() throws IOException {
+        if (!Files.exists(snapshotPath)) {
+            return;
+        }
+        try (InputStream stream = new BufferedInputStream(Files.newInputStream(snapshotPath))) {
+            CheckedInputStream checked = new CheckedInputStream(stream, new CRC32());
+            DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a loan snapshot: " + snapshotPath);
+            }
+            int version = in.readInt();
+            if (version != SNAPSHOT_VERSION) {
+                throw new IOException("Unsupported loan snapshot version " + version);
+            }
+            long seq = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                apply(new Entry(in.readByte(), in.readUTF(), in.readUTF(), in.readUTF()));
+            }
+            int expected = (int) checked.getChecksum().getValue();
+            if (new DataInputStream(stream).readInt() != expected) {
+                // The snapshot is renamed into place only when complete.
+                throw new IOException("Corrupt loan snapshot: " + snapshotPath);
+            }
+            lastSeq = seq;
+            snapshotSeq = seq;
+        }
+    }
+
+    private void replayLog() throws IOException {
+        long good = 0;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(log.position(0))));
+        try {
+            while (true) {
+                int length = in.readInt();
+                int crc = in.readInt();
+                if (length <= 0 || length > 1 << 20) {
+                    break;
+                }
+                byte[] body = new byte[length];
+                in.readFully(body);
+                CRC32 check = new CRC32();
+                check.update(body);
+                if ((int) check.getValue() != crc) {
+                    break;
+                }
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(body));
+                long seq = record.readLong();
+                Entry entry = new Entry(record.readByte(), record.readUTF(), record.readUTF(), record.readUTF());
+                good += 8 + length;
+                // Records up to the snapshot are already in it (a crash can
+                // happen between writing the snapshot and emptying the log).
+                if (seq > lastSeq) {
+                    apply(entry);
+                    lastSeq = seq;
+                    sinceSnapshot++;
+                }
+            }
+        } catch (EOFException e) {
+            // End of the log, or a record cut short by a crash.
+        }
+        if (good < log.size()) {
+            log.truncate(good);
+            log.force(true);
+        }
+        log.position(good);
+    }
+
+    public synchronized long getLastSeq() {
+        return lastSeq;
+    }
+
+    public String toString() {
+        synchronized (this) {
+            return "LoanJournal: seq " + lastSeq + ", snapshot at " + snapshotSeq + ", " + sinceSnapshot
+                    + " records since, " + syncs + " syncs";
+        }
+    }
+
+    // Waits for pending records to reach the disk, then stops the writer.
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.close();
+    }
+}
@@ -1,5 +1,8 @@
+import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.stage.Stage;
@@ -17,15 +20,62 @@ public class MVC extends Application {
     //to comment
     @Override
     public void start(Stage stage) throws Exception {
-        ObservableList<Book> booking = FXCollections.observableArrayList(Arrays.asList(Booklist.list));
-        Library library = new Library(booking); 
+        // MODEL: Loads a binary catalog when started with --catalog=<file>,
+        // otherwise the built-in book list.
+        String catalog = getParameters().getNamed().get("catalog");
+        Library library;
+        if (catalog != null) {
+            library = new Library(CatalogFile.open(Paths.get(catalog)));
+        } else {
+            ObservableList<Book> booking = FXCollections.observableArrayList(Arrays.asList(Booklist.list));
+            library = new Library(booking);
+        }
         AppModel model = new AppModel(library);
+        // MODEL: --journal=<dir> keeps loans across restarts.
+        String journalDir = getParameters().getNamed().get("journal");
+        if (journalDir != null) {
+            LoanJournal journal = LoanJournal.open(Paths.get(journalDir));
+            model.recover(journal);
+            System.out.println(journal);
+        }
+        // MODEL: Checkouts run in the background; the user's lists follow on
+        // the JavaFX thread.
+        model.setViewExecutor(Platform::runLater);
         AppController controller = new AppController(model);
+        // CONTROLLER: --metrics=<file> times every model call, publishes the
+        // numbers over JMX and rewrites the file with them every 10 seconds.
+        String metricsFile = getParameters().getNamed().get("metrics");
+        if (metricsFile != null) {
+            LibraryMetrics metrics = controller.getMetrics();
+            metrics.setEnabled(true);
+            metrics.register();
+            metrics.startReporter(Paths.get(metricsFile), 10, TimeUnit.SECONDS);
+        }
         AppView view = new AppView(controller, model, stage);
 
         stage.setScene(view.getScene());
         stage.show();
 
+        // VIEW: --soak=<rounds> clicks through all screens that many times
+        // and prints the heap growth and navigation times.
+        String soak = getParameters().getNamed().get("soak");
+        if (soak != null) {
+            view.soak(Integer.parseInt(soak), System.out::print);
+        }
+
+        // MODEL: --import=<file.csv|file.jsonl> streams a catalog into the
+        // library in the background while the window is already usable.
+        String importFile = getParameters().getNamed().get("import");
+        if (importFile != null) {
+            BookStore store = new BookStore(1 << 16);
+            CatalogImporter importer = new CatalogImporter(library, store, Platform::runLater);
+            importer.setProgressListener(stats -> System.out.println("Import: " + stats));
+            importer.start(Paths.get(importFile)).thenRun(() -> System.out.println(store.memoryReport())).exceptionally(error -> {
+                System.out.println("Import failed: " + error);
+                return null;
+            });
+        }
+
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,60 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// MODEL: A library user with their own loan ledger.
+// The ledger is guarded by the patron itself, so checkouts by different
+// patrons never wait on each other; there is no model-wide lock.
+class Patron {
+    private final String id;
+    private final String name;
+    private final List<Book> borrowedBooks;
+    private final List<Book> downloadedBooks;
+
+    public Patron(String id, String name) {
+        this.id = id;
+        this.name = name;
+        this.borrowedBooks = new ArrayList<>();
+        this.downloadedBooks = new ArrayList<>();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    synchronized void addLoan(Book book) {
+        borrowedBooks.add(book);
+    }
+
+    synchronized boolean removeLoan(Book book) {
+        return borrowedBooks.remove(book);
+    }
+
+    synchronized void addDownload(Book book) {
+        downloadedBooks.add(book);
+    }
+
+    public synchronized boolean hasBorrowed(Book book) {
+        return borrowedBooks.contains(book);
+    }
+
+    public synchronized int getBorrowedCount() {
+        return borrowedBooks.size();
+    }
+
+    // Copies, so callers can iterate while the patron keeps borrowing.
+    public synchronized List<Book> getBorrowedBooks() {
+        return new ArrayList<>(borrowedBooks);
+    }
+
+    public synchronized List<Book> getDownloadedBooks() {
+        return new ArrayList<>(downloadedBooks);
+    }
+
+    public String toString() {
+        return name + " (" + id + ")";
+    }
+}
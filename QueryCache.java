@@ -0,0 +1,126 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+// MODEL: LRU cache of query results for one Library, bounded by the total
+// number of books it holds rather than by the number of results, so a few
+// huge results cannot pin most of the heap. A result with more books than
+// the whole bound is not cached.
+// Each result remembers the library's catalog version (bumped when books are
+// added or removed) and, if the query depends on status, its status version
+// (bumped on checkout and return). A result whose versions are behind is
+// stale and counts as a miss, so nothing has to be cleared on a change.
+// Results are shared between callers and must not be modified.
+class QueryCache {
+    private static class Entry {
+        final List<Book> books;
+        final long catalogVersion;
+        // -1 when the result does not depend on book status.
+        final long statusVersion;
+
+        Entry(List<Book> books, long catalogVersion, long statusVersion) {
+            this.books = books;
+            this.catalogVersion = catalogVersion;
+            this.statusVersion = statusVersion;
+        }
+    }
+
+    private final int maxRows;
+    private final LinkedHashMap<Object, Entry> entries;
+    private long rows;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    public QueryCache(int maxRows) {
+        this.maxRows = maxRows;
+        // Access order, so the eldest entry is the least recently used one.
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    // An empty result still costs an entry, so it counts as one row.
+    private static int rowsOf(Entry entry) {
+        return Math.max(1, entry.books.size());
+    }
+
+    // Returns the cached result, or null if there is none or it is stale.
+    public synchronized List<Book> get(Object key, long catalogVersion, long statusVersion) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        if (entry.catalogVersion != catalogVersion
+                || (entry.statusVersion >= 0 && entry.statusVersion != statusVersion)) {
+            entries.remove(key);
+            rows -= rowsOf(entry);
+            invalidations++;
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.books;
+    }
+
+    public synchronized void put(Object key, List<Book> books, long catalogVersion, long statusVersion,
+            boolean usesStatus) {
+        Entry entry = new Entry(books, catalogVersion, usesStatus ? statusVersion : -1);
+        if (rowsOf(entry) > maxRows) {
+            return;
+        }
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            rows -= rowsOf(previous);
+        }
+        rows += rowsOf(entry);
+        // Evict least recently used results until the books fit again.
+        for (Iterator<Entry> it = entries.values().iterator(); rows > maxRows;) {
+            rows -= rowsOf(it.next());
+            it.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        rows = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    // Books held by the cached results (an empty result counts as one).
+    public synchronized long getRows() {
+        return rows;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    // Stale results dropped because the catalog or a status changed.
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    public synchronized double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public synchronized String toString() {
+        return String.format("QueryCache: %d entries, %d/%d rows, %d hits, %d misses (%.1f%% hit rate), "
+                + "%d evictions, %d invalidations", entries.size(), rows, maxRows, hits, misses,
+                getHitRate() * 100, evictions, invalidations);
+    }
+}
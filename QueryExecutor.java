@@ -0,0 +1,132 @@
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.function.Consumer;
+
+// CONTROLLER: Runs model queries off the JavaFX application thread.
+// Every query belongs to a channel (e.g. "filter", "search"). Submitting a new
+// query on a channel cancels the one still running there, and only the latest
+// query of a channel delivers its result. Results are handed to the result
+// executor (Platform::runLater in the app), so callbacks may touch the UI.
+class QueryExecutor {
+    private final ExecutorService workers;
+    private final Executor resultExecutor;
+    private final Map<String, FutureTask<?>> latest;
+
+    public QueryExecutor(Executor resultExecutor) {
+        // One cheap virtual thread per query; cancelled queries are interrupted.
+        this.workers = Executors.newVirtualThreadPerTaskExecutor();
+        this.resultExecutor = resultExecutor;
+        this.latest = new ConcurrentHashMap<>();
+    }
+
+    public <T> CompletableFuture<T> submit(String channel, Callable<T> query, Consumer<? super T> onResult) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        FutureTask<T> task = new FutureTask<T>(query) {
+            @Override
+            protected void done() {
+                resultExecutor.execute(() -> deliver(channel, this, result, onResult));
+            }
+        };
+        // Cancelling the returned future also stops the query.
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                task.cancel(true);
+            }
+        });
+        FutureTask<?> previous = latest.put(channel, task);
+        if (previous != null) {
+            previous.cancel(true);
+        }
+        workers.execute(task);
+        return result;
+    }
+
+    // Like submit, but the query only starts after delayMillis. A newer
+    // query on the channel within that time replaces this one before it
+    // did any work, which debounces queries sent per keystroke.
+    public <T> CompletableFuture<T> submit(String channel, long delayMillis, Callable<T> query,
+            Consumer<? super T> onResult) {
+        return submit(channel, () -> {
+            // Cancelling interrupts the sleep.
+            if (delayMillis > 0) {
+                Thread.sleep(delayMillis);
+            }
+            return query.call();
+        }, onResult);
+    }
+
+    // Runs a change (a checkout, a return) in the background. Unlike a query
+    // it has no channel: it is never cancelled or replaced, and its outcome is
+    // always delivered, the result to onResult or what it threw to onError.
+    public <T> CompletableFuture<T> run(Callable<T> change, Consumer<? super T> onResult,
+            Consumer<? super Exception> onError) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        workers.execute(() -> {
+            T value;
+            try {
+                value = change.call();
+            } catch (Exception e) {
+                resultExecutor.execute(() -> {
+                    try {
+                        onError.accept(e);
+                    } finally {
+                        result.completeExceptionally(e);
+                    }
+                });
+                return;
+            }
+            resultExecutor.execute(() -> {
+                try {
+                    onResult.accept(value);
+                    result.complete(value);
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        });
+        return result;
+    }
+
+    // Runs on the result executor.
+    private <T> void deliver(String channel, FutureTask<T> task, CompletableFuture<T> result,
+            Consumer<? super T> onResult) {
+        if (latest.get(channel) != task || task.isCancelled()) {
+            // A newer query replaced this one while it was running.
+            result.cancel(false);
+            return;
+        }
+        latest.remove(channel, task);
+        try {
+            T value = task.get();
+            onResult.accept(value);
+            result.complete(value);
+        } catch (ExecutionException e) {
+            result.completeExceptionally(e.getCause());
+        } catch (CancellationException | InterruptedException e) {
+            result.cancel(false);
+        } catch (RuntimeException e) {
+            // Thrown by onResult.
+            result.completeExceptionally(e);
+        }
+    }
+
+    // Cancels the running query of a channel, if any.
+    public void cancel(String channel) {
+        FutureTask<?> task = latest.remove(channel);
+        if (task != null) {
+            task.cancel(true);
+        }
+    }
+
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+}
@@ -0,0 +1,253 @@
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+
+// Orders a library keeps sorted indexes for.
+enum BookOrder {
+    TITLE,
+    AUTHOR,
+    GENRE;
+}
+
+// MODEL: One ordering of a library's books, kept sorted as books come and go.
+// Books are filed under a precomputed key (a CollationKey for titles and
+// authors) in a sorted map, so an insert or remove costs O(log n) and sorted
+// output is a walk of the map instead of a sort. Books with equal keys are
+// kept in row order, which matches the tie-break of the live views.
+class SortIndex<K extends Comparable<? super K>> {
+    // Case-insensitive, accent-sensitive order for titles and authors.
+    // RuleBasedCollator.compare is synchronized, so every thread gets its own
+    // collator rather than queueing on a shared one.
+    private static final ThreadLocal<Collator> COLLATOR = ThreadLocal.withInitial(SortIndex::newCollator);
+
+    private final Function<Book, K> keyOf;
+    private final TreeMap<K, int[]> buckets;
+    // Key of each row, for removal and for sorting small selections.
+    private Object[] keys;
+    private int size;
+
+    public SortIndex(Function<Book, K> keyOf) {
+        this.keyOf = keyOf;
+        this.buckets = new TreeMap<>();
+        this.keys = new Object[64];
+    }
+
+    static Collator newCollator() {
+        Collator collator = Collator.getInstance(Locale.ROOT);
+        collator.setStrength(Collator.SECONDARY);
+        return collator;
+    }
+
+    // Compares two titles or authors in collation order.
+    static int compare(String a, String b) {
+        return COLLATOR.get().compare(a, b);
+    }
+
+    // Title order. Each index gets its own collator: keys are only built
+    // under the library's write lock, and an unshared collator never blocks.
+    static SortIndex<CollationKey> byTitle() {
+        Collator collator = newCollator();
+        return new SortIndex<>(book -> collator.getCollationKey(nonNull(book.getDisplayTitle())));
+    }
+
+    // Author order. Rows share their author's key from the index's
+    // dictionary, so there is one key per author rather than one per book,
+    // and rows of the same author compare equal without reading the key.
+    static SortIndex<CollationKey> byAuthor(CatalogIndex index) {
+        AuthorDictionary authors = index.authors();
+        return new SortIndex<>(book -> authors.key(index.authorId(index.rowOf(book))));
+    }
+
+    static SortIndex<Integer> byGenre() {
+        return new SortIndex<>(book -> book.getGenre() == null ? -1 : book.getGenre().ordinal());
+    }
+
+    // Books must be in the index before they are added to the result.
+    static SortIndex<?> of(BookOrder order, CatalogIndex index) {
+        switch (order) {
+            case TITLE:
+                return byTitle();
+            case AUTHOR:
+                return byAuthor(index);
+            default:
+                return byGenre();
+        }
+    }
+
+    private static String nonNull(String value) {
+        return value == null ? "" : value;
+    }
+
+    // Rows are added in increasing order, so a bucket stays sorted by appending.
+    // The first slot of a bucket holds its length.
+    public void add(int row, Book book) {
+        K key = keyOf.apply(book);
+        if (row >= keys.length) {
+            keys = Arrays.copyOf(keys, Math.max(row + 1, keys.length * 2));
+        }
+        keys[row] = key;
+        int[] bucket = buckets.get(key);
+        if (bucket == null) {
+            buckets.put(key, new int[] { 1, row });
+        } else {
+            int length = bucket[0];
+            if (length + 1 == bucket.length) {
+                bucket = Arrays.copyOf(bucket, bucket.length * 2);
+                buckets.put(key, bucket);
+            }
+            bucket[length + 1] = row;
+            bucket[0] = length + 1;
+        }
+        size++;
+    }
+
+    public void remove(int row) {
+        K key = key(row);
+        if (key == null) {
+            return;
+        }
+        keys[row] = null;
+        int[] bucket = buckets.get(key);
+        if (bucket == null) {
+            return;
+        }
+        int length = bucket[0];
+        int at = Arrays.binarySearch(bucket, 1, length + 1, row);
+        if (at < 0) {
+            return;
+        }
+        if (length == 1) {
+            buckets.remove(key);
+        } else {
+            System.arraycopy(bucket, at + 1, bucket, at, length - at);
+            bucket[0] = length - 1;
+        }
+        size--;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Key of an indexed row, or null. Kept in page cursors.
+    @SuppressWarnings("unchecked")
+    K key(int row) {
+        return row < keys.length ? (K) keys[row] : null;
+    }
+
+    // Orders (key, row) pairs the way the index stores them.
+    private int compare(K key, int row, K otherKey, int otherRow) {
+        int byKey = key == otherKey ? 0 : key.compareTo(otherKey);
+        return byKey != 0 ? byKey : Integer.compare(row, otherRow);
+    }
+
+    // MODEL: Up to limit accepted rows that come after (afterKey, afterRow)
+    // in this order, or from the start when afterKey is null. Walks the map
+    // from that point, so the cost follows the rows passed over, not the size.
+    @SuppressWarnings("unchecked")
+    public int[] walk(Object afterKey, int afterRow, IntPredicate accept, int limit) {
+        int[] result = new int[limit];
+        int found = 0;
+        Map<K, int[]> from = afterKey == null ? buckets : buckets.tailMap((K) afterKey, true);
+        for (Map.Entry<K, int[]> entry : from.entrySet()) {
+            boolean sameKey = afterKey != null && entry.getKey().compareTo((K) afterKey) == 0;
+            int[] bucket = entry.getValue();
+            for (int i = 1; i <= bucket[0]; i++) {
+                int row = bucket[i];
+                if (sameKey && row <= afterRow) {
+                    continue;
+                }
+                if (accept.test(row)) {
+                    result[found++] = row;
+                    if (found == limit) {
+                        return result;
+                    }
+                }
+            }
+        }
+        return Arrays.copyOf(result, found);
+    }
+
+    // MODEL: Same result as walk, found with a bounded heap over the
+    // candidate rows instead. Cheaper when the candidates are few.
+    @SuppressWarnings("unchecked")
+    public int[] heap(BitSet candidates, Object afterKey, int afterRow, IntPredicate accept, int limit) {
+        K after = (K) afterKey;
+        // Largest (key, row) at the head, so it is the one dropped.
+        PriorityQueue<Integer> best = new PriorityQueue<>(limit + 1,
+                (a, b) -> compare(key(b), b, key(a), a));
+        int checked = 0;
+        for (int row = candidates.nextSetBit(0); row >= 0; row = candidates.nextSetBit(row + 1)) {
+            if ((++checked & 0xFFF) == 0 && Thread.currentThread().isInterrupted()) {
+                throw new CancellationException("Query cancelled");
+            }
+            K key = key(row);
+            if (key == null || (after != null && compare(key, row, after, afterRow) <= 0) || !accept.test(row)) {
+                continue;
+            }
+            if (best.size() < limit) {
+                best.add(row);
+            } else if (compare(key, row, key(best.peek()), best.peek()) < 0) {
+                best.poll();
+                best.add(row);
+            }
+        }
+        int[] result = new int[best.size()];
+        for (int i = result.length - 1; i >= 0; i--) {
+            result[i] = best.poll();
+        }
+        return result;
+    }
+
+    // MODEL: Position of every row in this order (rows not indexed stay 0).
+    public int[] ranks(int rows) {
+        int[] ranks = new int[rows];
+        int rank = 0;
+        for (int[] bucket : buckets.values()) {
+            for (int i = 1; i <= bucket[0]; i++) {
+                ranks[bucket[i]] = rank++;
+            }
+        }
+        return ranks;
+    }
+
+    // MODEL: The selected rows as books, in this order. A large selection is
+    // read off the map in one walk; a small one is cheaper to sort by the
+    // stored keys (comparing CollationKeys is a byte compare).
+    public List<Book> books(CatalogIndex index, BitSet selected) {
+        int count = selected.cardinality();
+        List<Book> result = new ArrayList<>(count);
+        if (count < size / 64) {
+            Integer[] rows = new Integer[count];
+            int i = 0;
+            for (int row = selected.nextSetBit(0); row >= 0; row = selected.nextSetBit(row + 1)) {
+                rows[i++] = row;
+            }
+            // Stable, and rows start in row order, so ties stay in row order.
+            Arrays.sort(rows, (a, b) -> compare(key(a), 0, key(b), 0));
+            for (Integer row : rows) {
+                result.add(index.bookAt(row));
+            }
+            return result;
+        }
+        for (Map.Entry<K, int[]> entry : buckets.entrySet()) {
+            int[] bucket = entry.getValue();
+            for (int i = 1; i <= bucket[0]; i++) {
+                if (selected.get(bucket[i])) {
+                    result.add(index.bookAt(bucket[i]));
+                }
+            }
+        }
+        return result;
+    }
+}
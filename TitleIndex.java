@@ -0,0 +1,103 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+// MODEL: Title lookup structure kept up to date by Library.
+// Exact searches hit a hash map on the normalized title, prefix searches
+// walk a sorted map starting at the first key that is >= the prefix.
+// Both maps share the same bucket lists so a book is only stored once.
+class TitleIndex {
+    private final Map<String, List<Book>> exact;
+    private final TreeMap<String, List<Book>> sorted;
+
+    public TitleIndex() {
+        this.exact = new HashMap<>();
+        this.sorted = new TreeMap<>();
+    }
+
+    // Keys are trimmed and lower-cased once, so lookups never allocate per book.
+    public static String normalize(String title) {
+        return title == null ? "" : title.trim().toLowerCase(Locale.ROOT);
+    }
+
+    public void add(Book book) {
+        String key = normalize(book.getDisplayTitle());
+        List<Book> bucket = exact.get(key);
+        if (bucket == null) {
+            bucket = new ArrayList<>(1);
+            exact.put(key, bucket);
+            sorted.put(key, bucket);
+        }
+        bucket.add(book);
+    }
+
+    public void remove(Book book) {
+        remove(book, book.getDisplayTitle());
+    }
+
+    // For a book whose title was edited: it is filed under the old one.
+    public void remove(Book book, String title) {
+        String key = normalize(title);
+        List<Book> bucket = exact.get(key);
+        if (bucket == null) {
+            return;
+        }
+        // Books do not override equals, so remove the exact instance.
+        for (int i = 0; i < bucket.size(); i++) {
+            if (bucket.get(i) == book) {
+                bucket.remove(i);
+                break;
+            }
+        }
+        if (bucket.isEmpty()) {
+            exact.remove(key);
+            sorted.remove(key);
+        }
+    }
+
+    public void clear() {
+        exact.clear();
+        sorted.clear();
+    }
+
+    // Returns the first book added with this title, or null.
+    public Book get(String title) {
+        List<Book> bucket = exact.get(normalize(title));
+        return bucket == null ? null : bucket.get(0);
+    }
+
+    // Returns every book with this title, in the order they were added.
+    public List<Book> getAll(String title) {
+        List<Book> bucket = exact.get(normalize(title));
+        return bucket == null ? Collections.emptyList() : new ArrayList<>(bucket);
+    }
+
+    // Returns up to limit books whose title starts with prefix, in title order.
+    public List<Book> prefix(String prefix, int limit) {
+        String key = normalize(prefix);
+        if (limit <= 0) {
+            return Collections.emptyList();
+        }
+        List<Book> result = new ArrayList<>();
+        for (Map.Entry<String, List<Book>> entry : sorted.tailMap(key, true).entrySet()) {
+            if (!entry.getKey().startsWith(key)) {
+                break;
+            }
+            for (Book book : entry.getValue()) {
+                result.add(book);
+                if (result.size() == limit) {
+                    return result;
+                }
+            }
+        }
+        return result;
+    }
+
+    public int size() {
+        return exact.size();
+    }
+}
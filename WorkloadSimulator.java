@@ -0,0 +1,282 @@
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javafx.collections.FXCollections;
+
+// Simulates many patrons using one library at once. Each patron runs on its
+// own virtual thread: it picks an operation by the mix, runs it against the
+// model, then thinks for an exponentially distributed time (0 = closed loop).
+// Popular books are borrowed more than others (Zipf), so checkouts contend
+// the way they do in a real library. At the end it reports throughput per
+// interval (the lowest interval is what the library sustains) and latency
+// percentiles per operation.
+//
+// Usage: WorkloadSimulator [--books=100000 | --catalog=<file>] [--seed=42] [--patrons=200]
+//                          [--time=10000] [--think=5] [--interval=1000]
+//                          [--mix=checkout:20,return:15,filter:25,search:20,lookup:20]
+public class WorkloadSimulator {
+    enum Operation {
+        CHECKOUT,
+        RETURN,
+        FILTER,
+        SEARCH,
+        LOOKUP;
+    }
+
+    private final AppModel model;
+    private final Library library;
+    private final List<Book> books;
+    private final long seed;
+    private final Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+    private final Map<Operation, LatencyHistogram> latency = new EnumMap<>(Operation.class);
+    private final Map<Operation, LongAdder> refused = new EnumMap<>(Operation.class);
+    private final LongAdder completed = new LongAdder();
+    private long thinkMillis = 5;
+    private double[] popularity;
+    private String[] words;
+
+    public WorkloadSimulator(AppModel model, List<Book> books, long seed) {
+        if (books.isEmpty()) {
+            throw new IllegalArgumentException("The catalog has no books to simulate on");
+        }
+        this.model = model;
+        this.library = model.getLibrary();
+        this.books = books;
+        this.seed = seed;
+        for (Operation operation : Operation.values()) {
+            latency.put(operation, new LatencyHistogram());
+            refused.put(operation, new LongAdder());
+        }
+        // Default mix: checkout:20,return:15,filter:25,search:20,lookup:20
+        mix.put(Operation.CHECKOUT, 20);
+        mix.put(Operation.RETURN, 15);
+        mix.put(Operation.FILTER, 25);
+        mix.put(Operation.SEARCH, 20);
+        mix.put(Operation.LOOKUP, 20);
+    }
+
+    // Relative weights, e.g. "checkout:20,return:15,filter:25". Operations
+    // left out are not run. Weights may not be negative, and at least one
+    // must be positive.
+    public WorkloadSimulator mix(String weights) {
+        Map<Operation, Integer> parsed = new EnumMap<>(Operation.class);
+        int total = 0;
+        for (String part : weights.split(",")) {
+            String[] pair = part.trim().split(":");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Expected operation:weight, got " + part);
+            }
+            int weight = Integer.parseInt(pair[1].trim());
+            if (weight < 0) {
+                throw new IllegalArgumentException("Negative weight in " + part);
+            }
+            parsed.put(Operation.valueOf(pair[0].trim().toUpperCase()), weight);
+            total += weight;
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("The mix must give some operation a positive weight: " + weights);
+        }
+        mix.clear();
+        mix.putAll(parsed);
+        return this;
+    }
+
+    // Mean pause between two operations of one patron.
+    public WorkloadSimulator think(long thinkMillis) {
+        this.thinkMillis = thinkMillis;
+        return this;
+    }
+
+    // MODEL: Runs the patrons for the given time and returns the report.
+    public String run(int patrons, long millis, long intervalMillis) throws Exception {
+        popularity = CatalogGenerator.zipfCdf(books.size(), 0.9);
+        words = new String[Math.min(books.size(), 1000)];
+        for (int i = 0; i < words.length; i++) {
+            Book book = books.get(i * (books.size() / words.length));
+            List<String> tokens = FullTextIndex.tokenize(book.getDisplayTitle());
+            words[i] = tokens.isEmpty() ? "the" : tokens.get(tokens.size() - 1);
+        }
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(millis);
+        List<Double> rates = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> running = new ArrayList<>(patrons);
+            for (int i = 0; i < patrons; i++) {
+                Patron patron = model.getPatron("sim-" + i);
+                SplittableRandom random = new SplittableRandom(seed * 31 + i);
+                running.add(executor.submit(() -> {
+                    patronLoop(patron, random, deadline);
+                    return null;
+                }));
+            }
+            long last = 0;
+            long lastTime = start;
+            // Only whole intervals count; the tail before the deadline is too short to compare.
+            while (System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(intervalMillis) <= deadline) {
+                Thread.sleep(intervalMillis);
+                long done = completed.sum();
+                long now = System.nanoTime();
+                rates.add((done - last) * 1e9 / (now - lastTime));
+                last = done;
+                lastTime = now;
+            }
+            for (Future<?> future : running) {
+                future.get();
+            }
+        }
+        return report(patrons, (System.nanoTime() - start) / 1e9, rates);
+    }
+
+    private void patronLoop(Patron patron, SplittableRandom random, long deadline) throws InterruptedException {
+        int total = 0;
+        for (int weight : mix.values()) {
+            total += weight;
+        }
+        List<Book> borrowed = new ArrayList<>();
+        while (System.nanoTime() < deadline) {
+            Operation operation = pickOperation(random.nextInt(total));
+            // A patron at the limit brings a book back first.
+            if (operation == Operation.CHECKOUT && borrowed.size() >= AppModel.MAX_BORROWED) {
+                operation = Operation.RETURN;
+            }
+            long begin = System.nanoTime();
+            boolean ok = perform(operation, patron, random, borrowed);
+            latency.get(operation).record(System.nanoTime() - begin);
+            if (!ok) {
+                refused.get(operation).increment();
+            }
+            completed.increment();
+            if (thinkMillis > 0) {
+                Thread.sleep((long) (-Math.log(1 - random.nextDouble()) * thinkMillis));
+            }
+        }
+    }
+
+    private Operation pickOperation(int dice) {
+        for (Map.Entry<Operation, Integer> entry : mix.entrySet()) {
+            dice -= entry.getValue();
+            if (dice < 0) {
+                return entry.getKey();
+            }
+        }
+        return Operation.LOOKUP;
+    }
+
+    // Runs one operation; false if the model refused it (e.g. book on loan).
+    private boolean perform(Operation operation, Patron patron, SplittableRandom random, List<Book> borrowed) {
+        switch (operation) {
+            case CHECKOUT: {
+                Book book = books.get(CatalogGenerator.pick(popularity, random));
+                boolean ok = model.checkoutBook(patron, book);
+                if (ok && book instanceof PrintBook) {
+                    borrowed.add(book);
+                }
+                return ok;
+            }
+            case RETURN:
+                if (borrowed.isEmpty()) {
+                    return false;
+                }
+                return model.returnBook(patron, borrowed.remove(random.nextInt(borrowed.size())));
+            case FILTER: {
+                Book sample = books.get(random.nextInt(books.size()));
+                switch (random.nextInt(4)) {
+                    case 0:
+                        return library.filterPrintBook(sample.getGenre()) != null;
+                    case 1:
+                        return library.filterDigitalBook(sample.getGenre()) != null;
+                    case 2:
+                        return library.filterBooks(sample.getAuthor()) != null;
+                    default:
+                        return library.filterBooks(Status.AVAILABLE) != null;
+                }
+            }
+            case SEARCH:
+                return !library.search(words[random.nextInt(words.length)], 20).isEmpty();
+            default:
+                return library.getBook(books.get(random.nextInt(books.size())).getTitle()) != null;
+        }
+    }
+
+    private String report(int patrons, double seconds, List<Double> rates) {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%d patrons, %d books, think %d ms, %.1f s%n", patrons, books.size(),
+                thinkMillis, seconds));
+        report.append(String.format("%-9s %10s %10s %9s %9s %9s %9s %9s %9s%n", "operation", "count", "ops/s",
+                "refused", "mean ms", "p50 ms", "p99 ms", "p99.9 ms", "max ms"));
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram h = latency.get(operation);
+            if (h.getCount() == 0) {
+                continue;
+            }
+            report.append(String.format("%-9s %10d %10.0f %9d %9.3f %9.3f %9.3f %9.3f %9.3f%n",
+                    operation.name().toLowerCase(), h.getCount(), h.getCount() / seconds,
+                    refused.get(operation).sum(), h.getMean() / 1e6, h.getPercentile(50) / 1e6,
+                    h.getPercentile(99) / 1e6, h.getPercentile(99.9) / 1e6, h.getMax() / 1e6));
+        }
+        // The first interval includes warm-up, so it is left out of the minimum.
+        double min = Double.MAX_VALUE;
+        double max = 0;
+        for (int i = rates.size() > 1 ? 1 : 0; i < rates.size(); i++) {
+            min = Math.min(min, rates.get(i));
+            max = Math.max(max, rates.get(i));
+        }
+        report.append(String.format("total %.0f ops/s; per interval: sustained (min) %.0f, max %.0f ops/s%n",
+                completed.sum() / seconds, rates.isEmpty() ? 0 : min, max));
+        return report.toString();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int size = 100_000;
+        String catalog = null;
+        long seed = 42;
+        int patrons = 200;
+        long time = 10_000;
+        long think = 5;
+        long interval = 1000;
+        String mix = null;
+        for (String arg : args) {
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--books=")) {
+                size = Integer.parseInt(value);
+            } else if (arg.startsWith("--catalog=")) {
+                catalog = value;
+            } else if (arg.startsWith("--seed=")) {
+                seed = Long.parseLong(value);
+            } else if (arg.startsWith("--patrons=")) {
+                patrons = Integer.parseInt(value);
+            } else if (arg.startsWith("--time=")) {
+                time = Long.parseLong(value);
+            } else if (arg.startsWith("--think=")) {
+                think = Long.parseLong(value);
+            } else if (arg.startsWith("--interval=")) {
+                interval = Long.parseLong(value);
+            } else if (arg.startsWith("--mix=")) {
+                mix = value;
+            } else {
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+        }
+        Library library;
+        if (catalog != null) {
+            library = new Library(CatalogFile.open(Paths.get(catalog)));
+        } else {
+            library = new Library(FXCollections.observableArrayList(new CatalogGenerator(seed).generate(size)));
+        }
+        List<Book> books = library.libraryProperty();
+        AppModel model = new AppModel(library);
+        WorkloadSimulator simulator = new WorkloadSimulator(model, books, seed).think(think);
+        if (mix != null) {
+            simulator.mix(mix);
+        }
+        System.out.print(simulator.run(patrons, time, interval));
+    }
+}
@@ -0,0 +1,149 @@
+import bench.LibraryOperations;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import javafx.collections.FXCollections;
+
+// Runs the calls of bench.LibraryJmh on a Library and AppModel over a
+// catalog from CatalogGenerator. Keys are picked up front, so the
+// measured calls do no random work.
+public class BenchmarkTarget implements LibraryOperations {
+    private Library library;
+    private AppModel model;
+    private Book[] sample;
+    private String[] titles;
+    private String[] authors;
+    private List<PrintBook> printBooks;
+    private PrintBook current;
+
+    @Override
+    public void open(int books, long seed) {
+        List<Book> catalog = new CatalogGenerator(seed).generate(books);
+        library = new Library(FXCollections.observableArrayList(catalog));
+        model = new AppModel(library);
+        Random random = new Random(7);
+        sample = new Book[KEYS];
+        titles = new String[KEYS];
+        authors = new String[KEYS];
+        printBooks = new ArrayList<>();
+        for (int i = 0; i < KEYS; i++) {
+            Book book = catalog.get(random.nextInt(books));
+            sample[i] = book;
+            titles[i] = book.getDisplayTitle();
+            authors[i] = book.getAuthor();
+            // Generated catalogs start with some copies on loan.
+            if (book instanceof PrintBook && ((PrintBook) book).getAvailable()) {
+                printBooks.add((PrintBook) book);
+            }
+        }
+    }
+
+    private static int size(Library result) {
+        return result.libraryProperty().size();
+    }
+
+    private static Genre genre(int key) {
+        return BookStore.GENRES[key % BookStore.GENRES.length];
+    }
+
+    @Override
+    public int filterDigitalBook() {
+        return size(library.filterDigitalBook());
+    }
+
+    @Override
+    public int filterPrintBook() {
+        return size(library.filterPrintBook());
+    }
+
+    @Override
+    public int filterDigitalBookByAuthor(int key) {
+        return size(library.filterDigitalBook(authors[key]));
+    }
+
+    @Override
+    public int filterPrintBookByAuthor(int key) {
+        return size(library.filterPrintBook(authors[key]));
+    }
+
+    @Override
+    public int filterBooksByAuthor(int key) {
+        return size(library.filterBooks(authors[key]));
+    }
+
+    @Override
+    public int filterDigitalBookByGenre(int key) {
+        return size(library.filterDigitalBook(genre(key)));
+    }
+
+    @Override
+    public int filterPrintBookByGenre(int key) {
+        return size(library.filterPrintBook(genre(key)));
+    }
+
+    @Override
+    public int filterBooksByGenre(int key) {
+        return size(library.filterBooks(genre(key)));
+    }
+
+    @Override
+    public void sortByTitle() {
+        library.sortByTitle();
+    }
+
+    @Override
+    public void sortByAuthor() {
+        library.sortByAuthor();
+    }
+
+    @Override
+    public Object getBook(int key) {
+        return library.getBook(titles[key]);
+    }
+
+    @Override
+    public Object getMissingBook(int key) {
+        return library.getBook("missing " + key);
+    }
+
+    @Override
+    public boolean hasBook(int key) {
+        return library.hasBook(sample[key]);
+    }
+
+    @Override
+    public void prepareCheckout(int key) {
+        if (current != null) {
+            model.returnBook(current);
+        }
+        current = printBooks.get(key % printBooks.size());
+    }
+
+    @Override
+    public void checkoutBook() {
+        model.checkoutBook(current);
+    }
+
+    @Override
+    public void prepareReturn(int key) {
+        current = printBooks.get(key % printBooks.size());
+        model.checkoutBook(current);
+    }
+
+    @Override
+    public void returnBook() {
+        model.returnBook(current);
+    }
+
+    @Override
+    public void lendSamples() {
+        for (int i = 0; i < 10; i++) {
+            model.checkoutBook(sample[i]);
+        }
+    }
+
+    @Override
+    public int getUserBooks() {
+        return model.getUserBooks().size();
+    }
+}
@@ -0,0 +1,169 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// JMH benchmarks of the hot paths of Library and AppModel against synthetic
+// catalogs of 10k to 10M books. Reports throughput and sampled latency;
+// the pom's jmh profile adds the gc profiler for the allocation rate:
+//
+//   mvn -Pjmh verify -DskipTests [-Djmh.args="-p books=10000 filterPrintBook"]
+//
+// Set-up work (building the catalog, putting the list in the other order,
+// returning the previous loan) is done outside the measured calls.
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class LibraryJmh {
+    @Param({ "10000", "100000", "1000000", "10000000" })
+    public int books;
+
+    LibraryOperations library;
+    private int key;
+
+    @Setup(Level.Trial)
+    public void open() throws ReflectiveOperationException {
+        library = (LibraryOperations) Class.forName("BenchmarkTarget").getDeclaredConstructor().newInstance();
+        library.open(books, 42);
+    }
+
+    private int next() {
+        return key++ & (LibraryOperations.KEYS - 1);
+    }
+
+    @Benchmark
+    public int filterDigitalBook() {
+        return library.filterDigitalBook();
+    }
+
+    @Benchmark
+    public int filterPrintBook() {
+        return library.filterPrintBook();
+    }
+
+    @Benchmark
+    public int filterDigitalBookByAuthor() {
+        return library.filterDigitalBookByAuthor(next());
+    }
+
+    @Benchmark
+    public int filterPrintBookByAuthor() {
+        return library.filterPrintBookByAuthor(next());
+    }
+
+    @Benchmark
+    public int filterBooksByAuthor() {
+        return library.filterBooksByAuthor(next());
+    }
+
+    @Benchmark
+    public int filterDigitalBookByGenre() {
+        return library.filterDigitalBookByGenre(next());
+    }
+
+    @Benchmark
+    public int filterPrintBookByGenre() {
+        return library.filterPrintBookByGenre(next());
+    }
+
+    @Benchmark
+    public int filterBooksByGenre() {
+        return library.filterBooksByGenre(next());
+    }
+
+    @Benchmark
+    public void sortByTitle(SortedByAuthor from) {
+        library.sortByTitle();
+    }
+
+    @Benchmark
+    public void sortByAuthor(SortedByTitle from) {
+        library.sortByAuthor();
+    }
+
+    @Benchmark
+    public Object getBookHit() {
+        return library.getBook(next());
+    }
+
+    @Benchmark
+    public Object getBookMiss() {
+        return library.getMissingBook(next());
+    }
+
+    @Benchmark
+    public boolean hasBook() {
+        return library.hasBook(next());
+    }
+
+    @Benchmark
+    public void checkoutBook(NextCheckout loan) {
+        library.checkoutBook();
+    }
+
+    @Benchmark
+    public void returnBook(NextReturn loan) {
+        library.returnBook();
+    }
+
+    @Benchmark
+    public int getUserBooks(UserBooks lent) {
+        return library.getUserBooks();
+    }
+
+    // Each sort starts from the other order, never from sorted input.
+    @State(Scope.Thread)
+    public static class SortedByAuthor {
+        @Setup(Level.Invocation)
+        public void sort(LibraryJmh bench) {
+            bench.library.sortByAuthor();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class SortedByTitle {
+        @Setup(Level.Invocation)
+        public void sort(LibraryJmh bench) {
+            bench.library.sortByTitle();
+        }
+    }
+
+    // Only one book is out at a time, so the borrowed list stays small.
+    @State(Scope.Thread)
+    public static class NextCheckout {
+        @Setup(Level.Invocation)
+        public void pick(LibraryJmh bench) {
+            bench.library.prepareCheckout(bench.next());
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class NextReturn {
+        @Setup(Level.Invocation)
+        public void lend(LibraryJmh bench) {
+            bench.library.prepareReturn(bench.next());
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class UserBooks {
+        @Setup(Level.Trial)
+        public void lend(LibraryJmh bench) {
+            bench.library.lendSamples();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package bench;
+
+// The calls LibraryJmh measures. JMH benchmarks must live in a named
+// package, which cannot import the library classes of the default package,
+// so BenchmarkTarget (default package) implements this over them and the
+// benchmarks load it by name.
+public interface LibraryOperations {
+    // Number of sample keys; a power of two.
+    int KEYS = 4096;
+
+    // Builds a synthetic catalog of this many books and the model over it.
+    void open(int books, long seed);
+
+    int filterDigitalBook();
+
+    int filterPrintBook();
+
+    int filterDigitalBookByAuthor(int key);
+
+    int filterPrintBookByAuthor(int key);
+
+    int filterBooksByAuthor(int key);
+
+    int filterDigitalBookByGenre(int key);
+
+    int filterPrintBookByGenre(int key);
+
+    int filterBooksByGenre(int key);
+
+    void sortByTitle();
+
+    void sortByAuthor();
+
+    Object getBook(int key);
+
+    Object getMissingBook(int key);
+
+    boolean hasBook(int key);
+
+    // Returns the copy out before, then picks the next print copy to lend.
+    void prepareCheckout(int key);
+
+    void checkoutBook();
+
+    // Picks the next print copy and lends it, so it can be returned.
+    void prepareReturn(int key);
+
+    void returnBook();
+
+    // Lends the local user a few books to list.
+    void lendSamples();
+
+    int getUserBooks();
+}
@@ -0,0 +1,122 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
+import org.junit.jupiter.api.Test;
+
+class AppModelTest {
+    private static List<PrintBook> availablePrints(List<Book> books, int count) {
+        List<PrintBook> prints = new ArrayList<>();
+        for (Book book : books) {
+            if (book instanceof PrintBook && ((PrintBook) book).getAvailable() && prints.size() < count) {
+                prints.add((PrintBook) book);
+            }
+        }
+        return prints;
+    }
+
+    // Many patrons racing for a few copies: each copy goes to one patron at
+    // most, nobody passes the limit, and the availability flags, statuses
+    // and status index all agree with the ledgers afterwards.
+    @Test
+    void concurrentCheckoutsLendEachCopyOnce() throws InterruptedException {
+        List<Book> books = new CatalogGenerator(21).generate(2_000);
+        Library library = new Library(FXCollections.observableArrayList(books));
+        AppModel model = new AppModel(library);
+        List<PrintBook> prints = availablePrints(books, 60);
+        List<Patron> patrons = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            patrons.add(model.getPatron("p" + i));
+        }
+
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        for (int t = 0; t < 8; t++) {
+            Random random = new Random(t);
+            threads.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < 2_000; i++) {
+                    Patron patron = patrons.get(random.nextInt(patrons.size()));
+                    PrintBook book = prints.get(random.nextInt(prints.size()));
+                    if (!model.checkoutBook(patron, book)) {
+                        model.returnBook(patron, book);
+                    }
+                }
+            });
+        }
+        start.countDown();
+        threads.shutdown();
+        assertTrue(threads.awaitTermination(1, TimeUnit.MINUTES));
+
+        Map<Book, Patron> lent = new IdentityHashMap<>();
+        for (Patron patron : patrons) {
+            assertTrue(patron.getBorrowedCount() <= AppModel.MAX_BORROWED);
+            for (Book book : patron.getBorrowedBooks()) {
+                assertNull(lent.put(book, patron), "lent twice: " + book);
+            }
+        }
+        for (PrintBook book : prints) {
+            boolean out = lent.containsKey(book);
+            assertEquals(!out, book.getAvailable());
+            assertEquals(out ? Status.UNAVAILABLE : Status.AVAILABLE, book.getStatus());
+        }
+        List<Book> unavailable = library.query(new BookQuery().type(PrintBook.class).status(Status.UNAVAILABLE));
+        for (PrintBook book : prints) {
+            assertEquals(lent.containsKey(book), unavailable.contains(book));
+        }
+        assertFalse(lent.isEmpty());
+    }
+
+    // A cart reaches a live view, the borrowed list and the counter as one
+    // change each; a cart over the limit changes nothing.
+    @Test
+    void cartCheckoutPublishesOneChange() {
+        List<Book> books = new CatalogGenerator(13).generate(2_000);
+        Library library = new Library(FXCollections.observableArrayList(books));
+        AppModel model = new AppModel(library);
+        LiveLibraryView shelf = library.view(new BookQuery().type(PrintBook.class).status(Status.AVAILABLE), null);
+        int[] viewChanges = new int[1];
+        int[] listChanges = new int[1];
+        int[] counterChanges = new int[1];
+        shelf.libraryProperty().addListener((ListChangeListener<Book>) change -> viewChanges[0]++);
+        model.getBorrowedBooks().addListener((ListChangeListener<Book>) change -> listChanges[0]++);
+        model.countBorrowedBookProperty().addListener((property, oldValue, newValue) -> counterChanges[0]++);
+        List<PrintBook> cart = availablePrints(books, AppModel.MAX_BORROWED + 1);
+        int shelved = shelf.size();
+
+        assertFalse(model.checkoutBooks(cart));
+        assertEquals(0, viewChanges[0] + listChanges[0] + counterChanges[0]);
+        assertTrue(cart.get(AppModel.MAX_BORROWED).getAvailable());
+
+        List<PrintBook> allowed = cart.subList(0, AppModel.MAX_BORROWED);
+        assertTrue(model.checkoutBooks(allowed));
+        assertEquals(1, viewChanges[0]);
+        assertEquals(1, listChanges[0]);
+        assertEquals(1, counterChanges[0]);
+        assertEquals(shelved - allowed.size(), shelf.size());
+        assertEquals(AppModel.MAX_BORROWED, model.getCountBorrowedBook());
+
+        assertEquals(allowed.size(), model.returnBooks(allowed));
+        assertEquals(2, viewChanges[0]);
+        assertEquals(2, listChanges[0]);
+        assertEquals(2, counterChanges[0]);
+        assertEquals(shelved, shelf.size());
+        assertEquals(0, model.getCountBorrowedBook());
+    }
+}
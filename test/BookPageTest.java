@@ -0,0 +1,56 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import org.junit.jupiter.api.Test;
+
+class BookPageTest {
+    // Removing books after the first page, the cursor's own book among them,
+    // must neither repeat nor skip any book on the following pages, whether
+    // the page walks the sort index or keeps a bounded heap.
+    @Test
+    void pagesContinueAfterRemovals() {
+        List<Book> books = new CatalogGenerator(15).generate(5_000);
+        ObservableList<Book> list = FXCollections.observableArrayList(books);
+        Library library = new Library(list);
+        List<BookQuery> queries = List.of(
+                new BookQuery().type(PrintBook.class),
+                new BookQuery().author(books.get(0).getAuthor()));
+        Random random = new Random(4);
+
+        for (BookQuery query : queries) {
+            for (BookOrder order : BookOrder.values()) {
+                List<Book> all = library.top(query, order, books.size());
+                int pageSize = Math.max(1, all.size() / 10);
+                BookPage first = library.page(query, order, null, pageSize);
+                assertEquals(all.subList(0, pageSize), first.getBooks());
+                assertTrue(first.hasNext());
+
+                List<Book> rest = new ArrayList<>(all.subList(pageSize, all.size()));
+                List<Book> gone = new ArrayList<>();
+                gone.add(all.get(pageSize - 1));
+                for (int i = 0; i < rest.size() / 5; i++) {
+                    gone.add(rest.get(random.nextInt(rest.size())));
+                }
+                list.removeAll(gone);
+                rest.removeAll(gone);
+
+                List<Book> paged = new ArrayList<>();
+                BookPage.Cursor cursor = first.getNext();
+                while (cursor != null) {
+                    BookPage page = library.page(query, order, cursor, pageSize);
+                    assertFalse(page.getBooks().isEmpty() && page.hasNext());
+                    paged.addAll(page.getBooks());
+                    cursor = page.getNext();
+                }
+                assertEquals(rest, paged, query + " by " + order);
+                list.addAll(gone);
+            }
+        }
+    }
+}
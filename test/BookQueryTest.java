@@ -0,0 +1,86 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import org.junit.jupiter.api.Test;
+
+class BookQueryTest {
+    // Random queries after removals and checkouts must find exactly the
+    // books BookQuery.matches accepts, whether the planner walks the
+    // postings or scans the columns.
+    @Test
+    void queriesMatchAfterRemovalsAndStatusChanges() {
+        List<Book> books = new CatalogGenerator(11).generate(100_000);
+        ObservableList<Book> list = FXCollections.observableArrayList(books);
+        Library library = new Library(list);
+        Random random = new Random(5);
+        List<Book> gone = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            gone.add(books.get(random.nextInt(books.size())));
+        }
+        list.removeAll(gone);
+        AppModel model = new AppModel(library);
+        for (int i = 0; i < 500; i++) {
+            Patron patron = model.getPatron("p" + (i % 200));
+            Book book = books.get(random.nextInt(books.size()));
+            if (library.hasBook(book)) {
+                model.checkoutBook(patron, book);
+            }
+        }
+        List<Book> current = new ArrayList<>(list);
+
+        int scanned = 0;
+        for (int q = 0; q < 300; q++) {
+            BookQuery query = randomQuery(random, current);
+            Set<Book> expected = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (Book book : current) {
+                if (query.matches(book)) {
+                    expected.add(book);
+                }
+            }
+            List<Book> result = library.query(query);
+            Set<Book> actual = Collections.newSetFromMap(new IdentityHashMap<>());
+            actual.addAll(result);
+            assertEquals(expected.size(), result.size(), query.toString());
+            assertEquals(expected, actual, query.toString());
+            if (expected.size() >= BookQuery.SCAN_ROWS) {
+                scanned++;
+            }
+        }
+        assertTrue(scanned > 0, "no query was answered by a column scan");
+    }
+
+    private static BookQuery randomQuery(Random random, List<Book> books) {
+        BookQuery query = new BookQuery();
+        if (random.nextInt(3) == 0) {
+            query.type(random.nextBoolean() ? PrintBook.class : DigitalBook.class);
+        }
+        if (random.nextInt(3) == 0) {
+            query.genre(Genre.values()[random.nextInt(Genre.values().length)]);
+        }
+        if (random.nextInt(4) == 0) {
+            query.status(Status.values()[random.nextInt(Status.values().length)]);
+        }
+        if (random.nextInt(6) == 0) {
+            query.author(books.get(random.nextInt(books.size())).getAuthor());
+        }
+        if (random.nextInt(8) == 0) {
+            query.format(Format.values()[random.nextInt(Format.values().length)]);
+        }
+        if (random.nextInt(8) == 0) {
+            query.coverType(CoverType.values()[random.nextInt(CoverType.values().length)]);
+        }
+        if (random.nextInt(2) == 0) {
+            int low = random.nextInt(400);
+            query.pages(low, low + random.nextInt(500));
+        }
+        return query;
+    }
+}
@@ -0,0 +1,62 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import javafx.collections.FXCollections;
+import org.junit.jupiter.api.Test;
+
+class HoldQueuesTest {
+    // A returned copy goes straight to the first holder who can borrow it.
+    // A holder at the limit is passed over but keeps their place, and the
+    // copy only goes back on the shelf when nobody waiting can take it.
+    @Test
+    void returnedCopyGoesToNextEligibleHolder() {
+        List<Book> books = new CatalogGenerator(25).generate(1_000);
+        AppModel model = new AppModel(new Library(FXCollections.observableArrayList(books)));
+        List<PrintBook> prints = new ArrayList<>();
+        for (Book book : books) {
+            if (book instanceof PrintBook && ((PrintBook) book).getAvailable()) {
+                prints.add((PrintBook) book);
+            }
+        }
+        PrintBook copy = prints.get(0);
+        Patron ann = model.getPatron("ann");
+        Patron bob = model.getPatron("bob");
+        Patron carol = model.getPatron("carol");
+        List<String> events = new ArrayList<>();
+        model.subscribe(copy, event -> events.add(event.getKind()
+                + (event.getPatron() == null ? "" : " " + event.getPatron().getId())));
+
+        assertEquals(0, model.placeHold(bob, copy));
+        assertTrue(model.checkoutBook(ann, copy));
+        assertEquals(1, model.placeHold(bob, copy));
+        assertEquals(2, model.placeHold(carol, copy));
+        assertEquals(1, model.placeHold(bob, copy));
+        for (int i = 1; i <= AppModel.MAX_BORROWED; i++) {
+            assertTrue(model.checkoutBook(bob, prints.get(i)));
+        }
+
+        assertTrue(model.returnBook(ann, copy));
+        assertEquals(List.of("LENT_TO_HOLDER carol"), events);
+        assertTrue(carol.hasBorrowed(copy));
+        assertEquals(Status.UNAVAILABLE, copy.getStatus());
+        assertFalse(copy.getAvailable());
+        assertEquals(1, model.getHoldPosition(bob, copy));
+        assertEquals(1, model.getHoldCount(copy));
+
+        assertTrue(model.returnBook(carol, copy));
+        assertEquals(List.of("LENT_TO_HOLDER carol", "AVAILABLE"), events);
+        assertTrue(copy.getAvailable());
+        assertEquals(Status.AVAILABLE, copy.getStatus());
+        assertEquals(1, model.getHoldPosition(bob, copy));
+
+        assertTrue(model.returnBook(bob, prints.get(1)));
+        assertTrue(model.checkoutBook(ann, copy));
+        assertTrue(model.returnBook(ann, copy));
+        assertEquals("LENT_TO_HOLDER bob", events.get(events.size() - 1));
+        assertEquals(0, model.getHoldCount(copy));
+        assertTrue(model.getHolds(bob).isEmpty());
+    }
+}
@@ -0,0 +1,64 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import org.junit.jupiter.api.Test;
+
+class LibraryTransactionTest {
+    // A rolled back transaction leaves the catalog, the statuses and the
+    // views as they were and publishes nothing; the same changes committed
+    // reach a view as one list change.
+    @Test
+    void rollbackChangesNothing() {
+        List<Book> books = new CatalogGenerator(17).generate(2_000);
+        ObservableList<Book> list = FXCollections.observableArrayList(books);
+        Library library = new Library(list);
+        LiveLibraryView shelf = library.view(new BookQuery().status(Status.AVAILABLE), null);
+        int[] changes = new int[1];
+        shelf.libraryProperty().addListener((ListChangeListener<Book>) change -> changes[0]++);
+        List<Book> before = new ArrayList<>(shelf.libraryProperty());
+
+        List<Book> onShelf = new ArrayList<>(before.subList(0, 20));
+        Book removed = books.get(books.size() - 1);
+        Book added = new CatalogGenerator(18).generate(1).get(0);
+
+        LibraryTransaction rolledBack = library.transaction();
+        for (Book book : onShelf) {
+            rolledBack.setStatus(book, Status.UNAVAILABLE);
+        }
+        rolledBack.removeBook(removed).addBook(added);
+        rolledBack.rollback();
+
+        assertEquals(0, changes[0]);
+        assertEquals(before, shelf.libraryProperty());
+        assertEquals(books.size(), list.size());
+        assertTrue(library.hasBook(removed));
+        assertFalse(library.hasBook(added));
+        for (Book book : onShelf) {
+            assertEquals(Status.AVAILABLE, book.getStatus());
+        }
+        assertThrows(IllegalStateException.class, rolledBack::commit);
+
+        LibraryTransaction committed = library.transaction();
+        for (Book book : onShelf) {
+            committed.setStatus(book, Status.UNAVAILABLE);
+        }
+        committed.removeBook(removed).addBook(added);
+        committed.commit();
+
+        assertEquals(1, changes[0]);
+        assertEquals(library.query(new BookQuery().status(Status.AVAILABLE)).size(), shelf.size());
+        assertFalse(library.hasBook(removed));
+        assertTrue(library.hasBook(added));
+        for (Book book : onShelf) {
+            assertEquals(Status.UNAVAILABLE, book.getStatus());
+            assertFalse(shelf.libraryProperty().contains(book));
+        }
+    }
+}
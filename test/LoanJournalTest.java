@@ -0,0 +1,141 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import javafx.beans.property.SimpleIntegerProperty;
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.collections.FXCollections;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class LoanJournalTest {
+    @TempDir
+    Path directory;
+
+    private static LoanJournal.Entry checkout(String patron, String title) {
+        return new LoanJournal.Entry(LoanJournal.CHECKOUT, patron, title, "Author");
+    }
+
+    private static LoanJournal.Entry giveBack(String patron, String title) {
+        return new LoanJournal.Entry(LoanJournal.RETURN, patron, title, "Author");
+    }
+
+    private static List<String> describe(List<LoanJournal.Entry> entries) {
+        List<String> result = new ArrayList<>();
+        for (LoanJournal.Entry entry : entries) {
+            result.add(entry.toString());
+        }
+        return result;
+    }
+
+    @Test
+    void recoversOpenLoansFromTheLog() throws IOException {
+        try (LoanJournal journal = LoanJournal.open(directory)) {
+            journal.appendAll(List.of(checkout("ann", "A"), checkout("ann", "B")));
+            journal.appendAll(List.of(giveBack("ann", "A"), checkout("bob", "C")));
+        }
+        try (LoanJournal journal = LoanJournal.open(directory)) {
+            assertEquals(List.of("checkout ann: B by Author", "checkout bob: C by Author"),
+                    describe(journal.recovered()));
+            assertEquals(4, journal.getLastSeq());
+        }
+    }
+
+    @Test
+    void recoversFromSnapshotAndLogTail() throws IOException {
+        try (LoanJournal journal = LoanJournal.open(directory)) {
+            journal.setSnapshotInterval(2);
+            journal.appendAll(List.of(checkout("ann", "A"), checkout("ann", "B")));
+            journal.appendAll(List.of(giveBack("ann", "A")));
+        }
+        assertTrue(Files.exists(directory.resolve(LoanJournal.SNAPSHOT_FILE)));
+        try (LoanJournal journal = LoanJournal.open(directory)) {
+            assertEquals(List.of("checkout ann: B by Author"), describe(journal.recovered()));
+            assertEquals(3, journal.getLastSeq());
+        }
+    }
+
+    @Test
+    void cutsOffATornRecord() throws IOException {
+        try (LoanJournal journal = LoanJournal.open(directory)) {
+            journal.appendAll(List.of(checkout("ann", "A"), checkout("ann", "B")));
+        }
+        Path log = directory.resolve(LoanJournal.LOG_FILE);
+        long good = Files.size(log);
+        // A crash in the middle of a write: the header promises more bytes
+        // than made it to the disk.
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.allocate(11).putInt(40).putInt(0).put(new byte[] { 1, 2, 3 }).flip());
+        }
+        try (LoanJournal journal = LoanJournal.open(directory)) {
+            assertEquals(good, Files.size(log));
+            assertEquals(2, journal.recovered().size());
+            journal.appendAll(List.of(checkout("ann", "C")));
+        }
+        try (LoanJournal journal = LoanJournal.open(directory)) {
+            assertEquals(List.of("checkout ann: A by Author", "checkout ann: B by Author",
+                    "checkout ann: C by Author"), describe(journal.recovered()));
+        }
+    }
+
+    @Test
+    void cutsOffARecordWithABadChecksum() throws IOException {
+        try (LoanJournal journal = LoanJournal.open(directory)) {
+            journal.appendAll(List.of(checkout("ann", "A")));
+        }
+        Path log = directory.resolve(LoanJournal.LOG_FILE);
+        long first = Files.size(log);
+        try (LoanJournal journal = LoanJournal.open(directory)) {
+            journal.appendAll(List.of(checkout("ann", "B")));
+        }
+        // Flip the last byte of the second record's body.
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.read(last, channel.size() - 1);
+            channel.write(ByteBuffer.wrap(new byte[] { (byte) ~last.get(0) }), channel.size() - 1);
+        }
+        try (LoanJournal journal = LoanJournal.open(directory)) {
+            assertEquals(first, Files.size(log));
+            assertEquals(List.of("checkout ann: A by Author"), describe(journal.recovered()));
+        }
+    }
+
+    @Test
+    void modelRestoresLoansAfterRestart() throws IOException {
+        AppModel model = new AppModel(new Library(FXCollections.observableArrayList(book("A"), book("B"))));
+        try (LoanJournal journal = LoanJournal.open(directory)) {
+            model.recover(journal);
+            assertTrue(model.checkoutBook(model.getLibrary().getBook("A")));
+            assertTrue(model.checkoutBook(model.getLibrary().getBook("B")));
+            assertTrue(model.returnBook(model.getLibrary().getBook("A")));
+        }
+
+        Library library = new Library(FXCollections.observableArrayList(book("A"), book("B")));
+        AppModel restarted = new AppModel(library);
+        try (LoanJournal journal = LoanJournal.open(directory)) {
+            restarted.recover(journal);
+        }
+        Book b = library.getBook("B");
+        assertEquals(List.of(b), restarted.getLocalPatron().getBorrowedBooks());
+        assertSame(b, restarted.getBorrowedBooks().get(0));
+        assertEquals(1, restarted.getCountBorrowedBook());
+        assertEquals(Status.UNAVAILABLE, b.getStatus());
+        assertFalse(restarted.getLocalPatron().hasBorrowed(library.getBook("A")));
+    }
+
+    private static PrintBook book(String title) {
+        return new PrintBook(new SimpleStringProperty(title), new SimpleStringProperty("Author"),
+                new SimpleObjectProperty<>(Genre.FANTASY), new SimpleIntegerProperty(100),
+                CoverType.PAPERBACK, new SimpleObjectProperty<>(Status.AVAILABLE));
+    }
+}
@@ -0,0 +1,75 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import javafx.collections.FXCollections;
+import org.junit.jupiter.api.Test;
+
+class QueryCacheTest {
+    // A checkout only makes results that depend on status stale; adding a
+    // book makes every result stale. Fresh results are shared, stale ones
+    // are counted as invalidations and rebuilt.
+    @Test
+    void staleResultsAreDroppedByVersion() {
+        List<Book> books = new CatalogGenerator(16).generate(2_000);
+        Library library = new Library(FXCollections.observableArrayList(books));
+        AppModel model = new AppModel(library);
+        PrintBook book = null;
+        for (Book candidate : books) {
+            if (candidate instanceof PrintBook && ((PrintBook) candidate).getAvailable()) {
+                book = (PrintBook) candidate;
+                break;
+            }
+        }
+        BookQuery byGenre = new BookQuery().type(PrintBook.class).genre(book.getGenre());
+        BookQuery onShelf = new BookQuery().type(PrintBook.class).status(Status.AVAILABLE);
+        QueryCache cache = library.getQueryCache();
+
+        List<Book> genre = library.query(byGenre);
+        List<Book> shelf = library.query(onShelf);
+        assertSame(genre, library.query(byGenre));
+        assertSame(shelf, library.query(onShelf));
+        assertEquals(2, cache.getHits());
+        assertEquals(0, cache.getInvalidations());
+
+        assertTrue(model.checkoutBook(model.getPatron("ann"), book));
+        assertSame(genre, library.query(byGenre));
+        List<Book> shelfAfter = library.query(onShelf);
+        assertNotSame(shelf, shelfAfter);
+        assertFalse(shelfAfter.contains(book));
+        assertEquals(1, cache.getInvalidations());
+
+        PrintBook added = new BookStore(1).addPrintBook(book.getTitle() + " II", book.getAuthor(), book.getGenre(),
+                100, CoverType.PAPERBACK, Status.AVAILABLE);
+        library.addBook(added);
+        List<Book> genreAfter = library.query(byGenre);
+        assertNotSame(genre, genreAfter);
+        assertTrue(genreAfter.contains(added));
+        assertEquals(2, cache.getInvalidations());
+    }
+
+    // The bound is on books held, not on results: the least recently used
+    // results go until the new one fits, and one larger than the bound is
+    // not kept at all.
+    @Test
+    void evictsLeastRecentlyUsedByRows() {
+        QueryCache cache = new QueryCache(10);
+        List<Book> four = List.copyOf(new CatalogGenerator(1).generate(4));
+        cache.put("a", four, 0, 0, false);
+        cache.put("b", four, 0, 0, false);
+        assertSame(four, cache.get("a", 0, 0));
+        cache.put("c", four, 0, 0, false);
+        assertNull(cache.get("b", 0, 0));
+        assertSame(four, cache.get("a", 0, 0));
+        assertEquals(1, cache.getEvictions());
+        assertEquals(8, cache.getRows());
+
+        cache.put("big", new CatalogGenerator(2).generate(11), 0, 0, false);
+        assertNull(cache.get("big", 0, 0));
+        assertEquals(2, cache.size());
+    }
+}
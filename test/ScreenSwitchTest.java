@@ -0,0 +1,44 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import javafx.collections.FXCollections;
+import org.junit.jupiter.api.Test;
+
+class ScreenSwitchTest {
+    // A long kiosk session opens the same few screens and searches over and
+    // over. The live views they open must not pile up: the library follows
+    // at most MAX_VIEWS of them, and an evicted view stops following it.
+    @Test
+    void liveViewsStayBoundedOverManySwitches() {
+        List<Book> books = new CatalogGenerator(3).generate(2_000);
+        Library library = new Library(FXCollections.observableArrayList(books));
+        AppController controller = new AppController(new AppModel(library), Runnable::run);
+        List<BookQuery> screens = new ArrayList<>();
+        screens.add(new BookQuery());
+        screens.add(new BookQuery().type(PrintBook.class));
+        screens.add(new BookQuery().type(DigitalBook.class));
+        for (Genre genre : Genre.values()) {
+            screens.add(new BookQuery().type(PrintBook.class).genre(genre));
+            screens.add(new BookQuery().type(DigitalBook.class).genre(genre));
+        }
+        LiveLibraryView first = controller.view(screens.get(0));
+        int sizeBefore = first.size();
+
+        int peak = 0;
+        for (int i = 0; i < 1_000; i++) {
+            controller.view(screens.get(i % screens.size()));
+            peak = Math.max(peak, library.viewCount());
+        }
+        assertEquals(AppController.MAX_VIEWS, peak);
+        assertEquals(AppController.MAX_VIEWS, library.viewCount());
+
+        // The all-books view was evicted long ago, so removing a book no
+        // longer reaches it.
+        library.libraryProperty().remove(books.get(0));
+        assertEquals(sizeBefore, first.size());
+        assertTrue(controller.view(screens.get(0)).size() < sizeBefore);
+        assertEquals(AppController.MAX_VIEWS, library.viewCount());
+    }
+}